@@ -0,0 +1,78 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cj.robokata.Main.LocalJar;
+import com.cj.robokata.Main.RobotEntry;
+
+/**
+ * Writing the <code>.battle</code> file, once for the whole field and once per pair as a
+ * round-robin tournament does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BattleConfigBenchmark {
+	@Param({"10", "60"})
+	int contestants;
+
+	private File dir;
+	private File battle;
+	private BattleSpec spec;
+	private List<RobotEntry> robots;
+	private List<Tournament.Battle> pairs;
+
+	@Setup(Level.Trial)
+	public void fixture() throws IOException {
+		dir = new File(FileUtils.getTempDirectory(), "robokata-bench-battle-" + System.nanoTime());
+		FileUtils.forceMkdir(dir);
+		battle = new File(dir, "battle.battle");
+		spec = BattleSpec.standard();
+		robots = new ArrayList<RobotEntry>();
+		for(int x=0;x<contestants;x++){
+			robots.add(new RobotEntry(new LocalJar(new File(dir, "team" + x + ".jar")), "team" + x + ".MyRobot"));
+		}
+		pairs = Tournament.roundRobin(robots);
+	}
+
+	@Benchmark
+	public File melee() {
+		Main.renderBattleConfig(spec, robots, battle);
+		return battle;
+	}
+
+	@Benchmark
+	public File roundRobin() {
+		for(Tournament.Battle next : pairs){
+			Main.renderBattleConfig(spec, next.robots, battle);
+		}
+		return battle;
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+}
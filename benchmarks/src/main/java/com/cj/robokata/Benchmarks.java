@@ -0,0 +1,31 @@
+package com.cj.robokata;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the suites with JMH's usual command line (e.g. <code>java -jar benchmarks.jar Unzip -f 1</code>),
+ * always with the GC profiler, so each result carries bytes allocated per operation, and always
+ * writing JSON to <code>-Drobokata.bench.results</code> (default <code>jmh-result.json</code>)
+ * so runs can be compared over time.
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws Exception {
+		File results = new File(System.getProperty("robokata.bench.results", "jmh-result.json"));
+
+		Options options = new OptionsBuilder()
+									.parent(new CommandLineOptions(args))
+									.addProfiler(GCProfiler.class)
+									.resultFormat(ResultFormatType.JSON)
+									.result(results.getAbsolutePath())
+									.build();
+		new Runner(options).run();
+		System.out.println("Results written to " + results.getAbsolutePath());
+	}
+}
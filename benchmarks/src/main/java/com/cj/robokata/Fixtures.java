@@ -0,0 +1,176 @@
+package com.cj.robokata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generated inputs shaped like the real thing, always the same for the same arguments.
+ */
+class Fixtures {
+	private static final String[] WORDS = {
+		"robot", "battle", "energy", "bullet", "heading", "radar", "gun", "turn", "ahead", "back",
+		"fire", "scan", "event", "public", "void", "class", "return", "double", "int", "import"};
+
+	/**
+	 * Something the size of a robocode distribution: mostly small, compressible files, plus
+	 * a few libraries' worth of larger ones.
+	 */
+	static File distribution(File dir, int files) throws IOException {
+		Random random = new Random(files);
+		File jar = new File(dir, "robocode-" + files + ".jar");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try{
+			for(int x=0;x<files;x++){
+				String path = "dir" + (x % 40) + "/sub" + (x % 7) + "/file" + x + (x % 10==0?".sh":".txt");
+				int size = x % 50==0?200 * 1024:2 * 1024 + random.nextInt(8 * 1024);
+				out.putNextEntry(new JarEntry(path));
+				out.write(text(random, size));
+				out.closeEntry();
+			}
+		}finally{
+			out.close();
+		}
+		return jar;
+	}
+
+	/**
+	 * A contestant jar: <code>classes</code> classes in a few packages, one in every
+	 * <code>robotEvery</code> extending robocode.Robot (directly or through an abstract base
+	 * in the jar), the rest plain objects, plus some non-class resources.
+	 */
+	static File contestant(File dir, int classes, int robotEvery) throws IOException {
+		Random random = new Random(classes);
+		File jar = new File(dir, "contestant-" + classes + ".jar");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try{
+			add(out, "bot/Base.class", classFile("bot/Base", "robocode/AdvancedRobot", 0x0421, random));
+			for(int x=0;x<classes;x++){
+				String name = "bot/p" + (x % 5) + "/C" + x;
+				String superName = x % robotEvery!=0?"java/lang/Object":(x % 2==0?"robocode/Robot":"bot/Base");
+				add(out, name + ".class", classFile(name, superName, 0x0021, random));
+			}
+			for(int x=0;x<classes / 10;x++){
+				add(out, "bot/res/data" + x + ".properties", text(random, 1024));
+			}
+		}finally{
+			out.close();
+		}
+		return jar;
+	}
+
+	private static void add(JarOutputStream out, String name, byte[] data) throws IOException {
+		out.putNextEntry(new JarEntry(name));
+		out.write(data);
+		out.closeEntry();
+	}
+
+	/**
+	 * A loadable class with no members, padded with constant pool strings to the size of a
+	 * typical small robot class.
+	 */
+	static byte[] classFile(String name, String superName, int access, Random random) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int padding = 20 + random.nextInt(40);
+
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(50);
+		out.writeShort(5 + padding);
+		out.writeByte(1); out.writeUTF(name);
+		out.writeByte(7); out.writeShort(1);
+		out.writeByte(1); out.writeUTF(superName);
+		out.writeByte(7); out.writeShort(3);
+		for(int x=0;x<padding;x++){
+			out.writeByte(1);
+			out.writeUTF(new String(text(random, 20 + random.nextInt(60)), "US-ASCII"));
+		}
+		out.writeShort(access);
+		out.writeShort(2);
+		out.writeShort(4);
+		out.writeShort(0);// interfaces
+		out.writeShort(0);// fields
+		out.writeShort(0);// methods
+		out.writeShort(0);// attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * What Jenkins sends for <code>/api/xml</code> on a busy server, with the lastBuild details
+	 * the <code>tree</code> query asks for.
+	 */
+	static byte[] jenkinsJobs(int jobs) throws IOException {
+		String[] colors = {"blue", "red", "blue_anime", "disabled", "yellow", "notbuilt"};
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?><hudson>");
+		xml.append("<assignedLabel/><mode>NORMAL</mode><nodeDescription>the master Jenkins node</nodeDescription>");
+		for(int x=0;x<jobs;x++){
+			String name = "robokata-2012-03-" + (10 + x % 20) + "-team" + x;
+			xml.append("<job><name>").append(name).append("</name>")
+				.append("<url>http://jenkins.example.com/job/").append(name).append("/</url>")
+				.append("<color>").append(colors[x % colors.length]).append("</color>");
+			if(x % colors.length!=5){
+				xml.append("<lastBuild><number>").append(x + 1).append("</number>");
+				for(int c=0;c<x % 3;c++){
+					xml.append("<culprit><fullName>Dev ").append(c).append("</fullName>")
+						.append("<absoluteUrl>http://jenkins.example.com/user/dev").append(c).append("</absoluteUrl></culprit>");
+				}
+				xml.append("<artifact><fileName>robot.jar</fileName><relativePath>target/robot.jar</relativePath></artifact>")
+					.append("<artifact><fileName>robot-sources.jar</fileName><relativePath>target/robot-sources.jar</relativePath></artifact>")
+					.append("</lastBuild>");
+			}
+			xml.append("</job>");
+		}
+		xml.append("<primaryView><name>All</name><url>http://jenkins.example.com/</url></primaryView>");
+		xml.append("<quietingDown>false</quietingDown><slaveAgentPort>0</slaveAgentPort><useCrumbs>false</useCrumbs>");
+		xml.append("<useSecurity>false</useSecurity></hudson>");
+		return xml.toString().getBytes("UTF-8");
+	}
+
+	static byte[] text(Random random, int size){
+		StringBuilder text = new StringBuilder(size + 16);
+		while(text.length() < size){
+			text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(8)==0?'\n':' ');
+		}
+		text.setLength(size);
+		try {
+			return text.toString().getBytes("US-ASCII");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * <code>size</code> bytes of filler without holding them all in memory.
+	 */
+	static InputStream stream(final long size){
+		final byte[] chunk = text(new Random(size), 64 * 1024);
+		return new InputStream() {
+			private long remaining = size;
+
+			@Override
+			public int read() {
+				byte[] one = new byte[1];
+				return read(one, 0, 1)==-1?-1:one[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if(remaining<=0){
+					return -1;
+				}
+				int n = (int) Math.min(Math.min(len, chunk.length), remaining);
+				System.arraycopy(chunk, 0, b, off, n);
+				remaining -= n;
+				return n;
+			}
+		};
+	}
+}
@@ -0,0 +1,118 @@
+package com.cj.robokata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cj.robokata.JenkinsTool.Endpoint;
+import com.cj.robokata.JenkinsTool.JobAndLastBuild;
+import com.cj.robokata.JenkinsTool.JobInfo;
+
+/**
+ * Parsing a large <code>/api/xml</code> job list, served from memory so only the parsing is
+ * measured.  The <code>dom4j*</code> benchmarks read the same payload the way JenkinsTool used
+ * to (a whole Document, then walking its elements) as the baseline for the streaming
+ * <code>stax*</code> ones; compare <code>gc.alloc.rate.norm</code> for memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx512m"})
+public class JenkinsXmlBenchmark {
+	@Param({"1000", "20000"})
+	int jobs;
+
+	private byte[] payload;
+	private JenkinsTool jenkins;
+
+	@Setup(Level.Trial)
+	public void fixture() throws IOException {
+		payload = Fixtures.jenkinsJobs(jobs);
+		jenkins = new JenkinsTool("http://jenkins.example.com", new ResponseCache() {
+			public InputStream open(String url, Endpoint endpoint, Source source) {
+				return new ByteArrayInputStream(payload);
+			}
+		});
+	}
+
+	@Benchmark
+	public void staxJobs(final Blackhole bh) {
+		jenkins.forEachJob(new JenkinsTool.Handler<JobInfo>() {
+			public void handle(JobInfo item) {
+				bh.consume(item);
+			}
+		});
+	}
+
+	@Benchmark
+	public void staxJobsWithLastBuild(final Blackhole bh) {
+		jenkins.forEachJobWithLastBuild("robokata-", new JenkinsTool.Handler<JobAndLastBuild>() {
+			public void handle(JobAndLastBuild item) {
+				bh.consume(item);
+			}
+		});
+	}
+
+	@Benchmark
+	public void dom4jJobs(Blackhole bh) throws DocumentException {
+		for(Element job : elements(read().getRootElement(), "job")){
+			bh.consume(job.elementText("name"));
+			bh.consume(JenkinsTool.JobStatus.valueOf(job.elementText("color").toUpperCase()));
+		}
+	}
+
+	@Benchmark
+	public void dom4jJobsWithLastBuild(Blackhole bh) throws DocumentException {
+		for(Element job : elements(read().getRootElement(), "job")){
+			String name = job.elementText("name");
+			if(!name.startsWith("robokata-")){
+				continue;
+			}
+			bh.consume(name);
+			bh.consume(JenkinsTool.JobStatus.valueOf(job.elementText("color").toUpperCase()));
+			Element build = job.element("lastBuild");
+			if(build!=null){
+				bh.consume(Integer.valueOf(build.elementText("number")));
+				for(Element culprit : elements(build, "culprit")){
+					bh.consume(culprit.elementText("fullName"));
+					bh.consume(culprit.elementText("absoluteUrl"));
+				}
+				for(Element artifact : elements(build, "artifact")){
+					bh.consume(artifact.elementText("fileName"));
+					bh.consume(artifact.elementText("relativePath"));
+				}
+			}
+		}
+	}
+
+	private Document read() throws DocumentException {
+		return new SAXReader().read(new ByteArrayInputStream(payload));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Element> elements(Element parent, String name){
+		return parent.elements(name);
+	}
+}
@@ -0,0 +1,95 @@
+package com.cj.robokata;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rating years of katas: recomputing a history of a million pairings (as duels, or as
+ * 6-robot melees of 15 pairings each) from scratch, as a change of parameters does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RatingsBenchmark {
+	private static final int PAIRINGS = 1000000;
+
+	@Param({"2", "6"})
+	int robotsPerBattle;
+
+	@Param({"200"})
+	int contestants;
+
+	private Ratings ratings;
+	private Ratings.Parameters[] parameters;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void fixture() {
+		Random random = new Random(42);
+		// some robots are just better
+		double[] strength = new double[contestants];
+		for(int x=0;x<contestants;x++){
+			strength[x] = random.nextGaussian();
+		}
+
+		ratings = new Ratings(new Ratings.Parameters(1500, 32, 400));
+		for(int x=0;x<contestants;x++){
+			ratings.id("team" + x);
+		}
+		int pairingsPerBattle = robotsPerBattle * (robotsPerBattle - 1) / 2;
+		int[] who = new int[robotsPerBattle];
+		double[] performance = new double[robotsPerBattle];
+		int[] placed = new int[robotsPerBattle];
+		for(int b=0;b<PAIRINGS / pairingsPerBattle;b++){
+			for(int x=0;x<robotsPerBattle;x++){
+				who[x] = pick(random, who, x);
+				performance[x] = strength[who[x]] + random.nextGaussian();
+			}
+			for(int x=0;x<robotsPerBattle;x++){
+				placed[x] = 1;
+				for(int y=0;y<robotsPerBattle;y++){
+					if(performance[y] > performance[x]){
+						placed[x]++;
+					}
+				}
+			}
+			ratings.battle(who, placed, robotsPerBattle);
+		}
+		parameters = new Ratings.Parameters[]{ new Ratings.Parameters(1500, 16, 400), new Ratings.Parameters(1500, 32, 400) };
+	}
+
+	private int pick(Random random, int[] chosen, int count){
+		while(true){
+			int candidate = random.nextInt(contestants);
+			boolean taken = false;
+			for(int x=0;x<count;x++){
+				taken |= chosen[x]==candidate;
+			}
+			if(!taken){
+				return candidate;
+			}
+		}
+	}
+
+	@Benchmark
+	public double recompute() {
+		ratings.recompute(parameters[next++ & 1]);
+		return ratings.rating("team0");
+	}
+}
@@ -0,0 +1,66 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the robots in contestant jars, from a typical one-robot project up to a jar
+ * with a few libraries bundled in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RobotScanBenchmark {
+	@Param({"20", "500", "5000"})
+	int classes;
+
+	private File dir;
+	private File jar;
+	private ContestantValidator validator;
+
+	@Setup(Level.Trial)
+	public void fixture() throws IOException {
+		dir = new File(FileUtils.getTempDirectory(), "robokata-bench-scan-" + System.nanoTime());
+		FileUtils.forceMkdir(dir);
+		jar = Fixtures.contestant(dir, classes, 10);
+		validator = new ContestantValidator(null, ContestantValidator.Limits.fromSystemProperties());
+	}
+
+	@Benchmark
+	public List<String> scan() throws IOException {
+		return RobotClassScanner.scan(jar);
+	}
+
+	/**
+	 * The same through {@link JarInspector}, size checks included.
+	 */
+	@Benchmark
+	public List<String> validate() {
+		return validator.validate(jar).robots;
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+}
@@ -0,0 +1,56 @@
+package com.cj.robokata;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pushing data through a child process and back: {@link CommandRunnerImpl} feeds <code>cat</code>'s
+ * stdin and drains its stdout, so both conduits carry every byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StreamPumpBenchmark {
+	@Param({"256"})
+	int megabytes;
+
+	private static class CountingSink extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	@Benchmark
+	public long pumpThroughCat() {
+		long size = megabytes * 1024L * 1024L;
+		CountingSink sink = new CountingSink();
+		new CommandRunnerImpl(FileUtils.getTempDirectory()).run(sink, Fixtures.stream(size), "cat");
+		if(sink.count!=size){
+			throw new IllegalStateException("Pumped " + sink.count + " of " + size + " bytes");
+		}
+		return sink.count;
+	}
+}
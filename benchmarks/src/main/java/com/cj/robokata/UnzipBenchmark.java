@@ -0,0 +1,82 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extracting a distribution-sized archive, into an empty directory ("cold") and over a
+ * previous extraction, where {@link Unzipper} can skip identical files ("warm").
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UnzipBenchmark {
+	@Param({"2000"})
+	int files;
+
+	@Param({"1", "4"})
+	int threads;
+
+	@Param({"false", "true"})
+	boolean warm;
+
+	private File dir;
+	private File archive;
+	private File dest;
+	private ExecutorService pool;
+	private Unzipper unzipper;
+
+	@Setup(Level.Trial)
+	public void fixture() throws IOException {
+		dir = new File(FileUtils.getTempDirectory(), "robokata-bench-unzip-" + System.nanoTime());
+		FileUtils.forceMkdir(dir);
+		archive = Fixtures.distribution(dir, files);
+		dest = new File(dir, "out");
+		pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("unzip"));
+		unzipper = new Unzipper(pool, warm);
+	}
+
+	@Setup(Level.Invocation)
+	public void prepare() throws IOException {
+		if(warm){
+			if(!dest.isDirectory()){
+				unzipper.unzip(archive, dest);
+			}
+		}else{
+			FileUtils.deleteDirectory(dest);
+		}
+	}
+
+	@Benchmark
+	public File unzip() throws IOException {
+		unzipper.unzip(archive, dest);
+		return dest;
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws IOException {
+		pool.shutdownNow();
+		FileUtils.deleteDirectory(dir);
+	}
+}
@@ -0,0 +1,258 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+
+/**
+ * Local copy of every artifact downloaded from Jenkins, shared by all kata runs.
+ *
+ * Artifacts are recorded by job/build/relativePath and stored once per distinct content
+ * (SHA-256).  Every fetch revalidates with the server using the ETag/Last-Modified it sent
+ * last time, so an unchanged artifact costs a 304 and no body.  When the blobs outgrow
+ * <code>maxBytes</code> the least recently used ones are evicted, except those used by
+ * the current run.
+ *
+ * Meant to be used by one runner process at a time.
+ */
+class ArtifactStore {
+	private static class Record {
+		final String hash;
+		final String etag;
+		final String lastModified;
+		long lastUsed;
+
+		Record(String hash, String etag, String lastModified, long lastUsed) {
+			super();
+			this.hash = hash;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.lastUsed = lastUsed;
+		}
+
+		static Record parse(String text){
+			String[] parts = text.split(" ", 4);
+			return new Record(parts[1], blankToNull(parts[3]), blankToNull(parts[2].replace('_', ' ')), Long.parseLong(parts[0]));
+		}
+
+		String format(){
+			return lastUsed + " " + hash + " " + nullToBlank(lastModified).replace(' ', '_') + " " + nullToBlank(etag);
+		}
+
+		private static String nullToBlank(String text){
+			return text==null?"":text;
+		}
+
+		private static String blankToNull(String text){
+			return text.length()==0?null:text;
+		}
+	}
+
+	private final File dir;
+	private final File blobs;
+	private final File index;
+	private final long maxBytes;
+	private final long openedAt = System.currentTimeMillis();
+	private final Map<String, Record> records = new HashMap<String, Record>();
+
+	public ArtifactStore(File dir, long maxBytes) throws IOException {
+		super();
+		this.dir = dir;
+		this.blobs = new File(dir, "blobs");
+		this.index = new File(dir, "index.properties");
+		this.maxBytes = maxBytes;
+
+		FileUtils.forceMkdir(blobs);
+		load();
+	}
+
+	/**
+	 * Makes <code>dest</code> a copy of the artifact at <code>url</code>, downloading it only if
+	 * the server says it changed since we last saw it under <code>key</code>.
+	 *
+	 * @param deadline when to give up on the download, as {@link System#currentTimeMillis()}
+	 * @return the artifact's index, as it downloaded, or null if it didn't need downloading
+	 */
+	public JarIndex fetch(URL url, String key, File dest, int timeoutMillis, long deadline, ContestantValidator.Limits limits) throws IOException {
+		Record known = lookup(key);
+
+		HttpURLConnection connection = open(url, timeoutMillis);
+		if(known!=null){
+			if(known.etag!=null){
+				connection.setRequestProperty("If-None-Match", known.etag);
+			}
+			if(known.lastModified!=null){
+				connection.setRequestProperty("If-Modified-Since", known.lastModified);
+			}
+		}
+
+		int status = connection.getResponseCode();
+		if(status==HttpURLConnection.HTTP_NOT_MODIFIED && known!=null){
+			Log.debug("Unchanged since last kata: " + url);
+			connection.disconnect();
+			used(key, known);
+			FileUtils.copyFile(blobFor(known.hash), dest);
+			return null;
+		}else if(status==HttpURLConnection.HTTP_OK){
+			Log.debug("Downloading " + url + " to " + dest.getAbsolutePath());
+			JarIndex index = download(connection, dest, deadline, limits);
+			used(key, new Record(index.sha256, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"), 0));
+			return index;
+		}else{
+			connection.disconnect();
+			throw new IOException("Server returned " + status + " for " + url);
+		}
+	}
+
+	private synchronized Record lookup(String key){
+		Record known = records.get(key);
+		if(known!=null && !blobFor(known.hash).isFile()){
+			records.remove(key);
+			return null;
+		}
+		if(known!=null){
+			// keeps it from being evicted while we revalidate
+			known.lastUsed = System.currentTimeMillis();
+		}
+		return known;
+	}
+
+	private synchronized void used(String key, Record record) throws IOException {
+		record.lastUsed = System.currentTimeMillis();
+		records.put(key, record);
+		evict();
+		save();
+	}
+
+	/**
+	 * Saves the download as <code>dest</code> and as its blob at once.
+	 */
+	private JarIndex download(URLConnection connection, File dest, long deadline, ContestantValidator.Limits limits) throws IOException {
+		File temp = File.createTempFile("download", ".tmp", dir);
+		try{
+			InputStream in = new DeadlineInputStream(connection.getInputStream(), deadline, connection.getURL().toString());
+			OutputStream out = new TeeOutputStream(new FileOutputStream(temp), new FileOutputStream(dest));
+			JarIndex index;
+			try{
+				index = JarIndex.copy(in, out, limits);
+			}finally{
+				IOUtils.closeQuietly(in);
+				out.close();
+			}
+
+			File blob = blobFor(index.sha256);
+			synchronized (this) {
+				if(!blob.isFile() && !temp.renameTo(blob)){
+					throw new IOException("Could not move " + temp.getAbsolutePath() + " to " + blob.getAbsolutePath());
+				}
+			}
+			return index;
+		}finally{
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	private File blobFor(String hash){
+		return new File(blobs, hash);
+	}
+
+	/**
+	 * Drops the least recently used blobs (and every key pointing at them) until the store fits.
+	 */
+	private void evict(){
+		final Map<String, Long> lastUsedByBlob = new HashMap<String, Long>();
+		long total = 0;
+		for(Record next : records.values()){
+			Long seen = lastUsedByBlob.get(next.hash);
+			if(seen==null){
+				total += blobFor(next.hash).length();
+			}
+			if(seen==null || seen < next.lastUsed){
+				lastUsedByBlob.put(next.hash, next.lastUsed);
+			}
+		}
+
+		List<String> oldestFirst = new ArrayList<String>(lastUsedByBlob.keySet());
+		Collections.sort(oldestFirst, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return lastUsedByBlob.get(a).compareTo(lastUsedByBlob.get(b));
+			}
+		});
+
+		for(String hash : oldestFirst){
+			if(total<=maxBytes || lastUsedByBlob.get(hash) >= openedAt){
+				break;
+			}
+			File blob = blobFor(hash);
+			total -= blob.length();
+			Log.info("Evicting cached artifact " + blob.getAbsolutePath());
+			FileUtils.deleteQuietly(blob);
+			for(Iterator<Record> i = records.values().iterator();i.hasNext();){
+				if(i.next().hash.equals(hash)){
+					i.remove();
+				}
+			}
+		}
+	}
+
+	private void load() throws IOException {
+		if(index.isFile()){
+			Properties props = new Properties();
+			InputStream in = new FileInputStream(index);
+			try{
+				props.load(in);
+			}finally{
+				in.close();
+			}
+			for(String key : props.stringPropertyNames()){
+				records.put(key, Record.parse(props.getProperty(key)));
+			}
+		}
+	}
+
+	private void save() throws IOException {
+		Properties props = new Properties();
+		for(Map.Entry<String, Record> next : records.entrySet()){
+			props.setProperty(next.getKey(), next.getValue().format());
+		}
+		File temp = new File(dir, index.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try{
+			props.store(out, "robokata artifact store: key = lastUsed sha256 lastModified etag");
+		}finally{
+			out.close();
+		}
+		if(!temp.renameTo(index)){
+			FileUtils.copyFile(temp, index);
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	private static HttpURLConnection open(URL url, int timeoutMillis) throws IOException {
+		URLConnection connection = url.openConnection();
+		if(!(connection instanceof HttpURLConnection)){
+			throw new IOException("Only http artifacts can be stored: " + url);
+		}
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		return (HttpURLConnection) connection;
+	}
+}
@@ -0,0 +1,62 @@
+package com.cj.robokata;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.Future;
+
+/**
+ * Starts commands without waiting for them.  Cancelling the returned future kills the command
+ * (and anything it started).
+ */
+public interface AsyncCommandRunner {
+
+	/**
+	 * Limits on how long a command may run; 0 means no limit.
+	 */
+	class Timeouts {
+		public static final Timeouts NONE = new Timeouts(0, 0);
+
+		/** from start to exit */
+		public final long wallMillis;
+		/** without any output */
+		public final long idleMillis;
+
+		public Timeouts(long wallMillis, long idleMillis) {
+			super();
+			this.wallMillis = wallMillis;
+			this.idleMillis = idleMillis;
+		}
+	}
+
+	class Result {
+		public final int exitCode;
+		/** what the command printed, or null if it went to a sink */
+		public final String output;
+		/** why the command was killed ("wall" or "idle"), or null if it finished on its own */
+		public final String timedOut;
+
+		public Result(int exitCode, String output, String timedOut) {
+			super();
+			this.exitCode = exitCode;
+			this.output = output;
+			this.timedOut = timedOut;
+		}
+
+		public boolean succeeded(){
+			return exitCode==0 && timedOut==null;
+		}
+	}
+
+	/**
+	 * Runs the command, capturing its output (stdout and stderr together), which is decoded
+	 * with <code>charset</code>.
+	 */
+	Future<Result> start(Timeouts timeouts, Charset charset, String command, String ... args);
+
+	/**
+	 * Runs the command, copying its output (stdout and stderr together) to <code>sink</code> and
+	 * feeding it <code>input</code>, if not null.
+	 */
+	Future<Result> start(Timeouts timeouts, OutputStream sink, InputStream input, String command, String ... args);
+}
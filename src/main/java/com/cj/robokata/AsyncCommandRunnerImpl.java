@@ -0,0 +1,248 @@
+package com.cj.robokata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Pumps every command's streams on one shared pool, whose threads are reused from one command
+ * to the next (a running command holds one, two if it's fed input), and checks every command's
+ * timeouts from one shared watchdog thread.  The pool has {@link #MAX_PUMPS} threads, four for
+ * each of the battles a tournament runs at once; past that, a command's output isn't read (and
+ * it soon stalls, on a full pipe) until another command finishes.
+ *
+ * A command that times out or is cancelled is killed along with its descendants (on Java 9+,
+ * where {@link Process} can list them; before that only the command itself), and is always
+ * waited for, so nothing is left behind as a zombie.
+ */
+public class AsyncCommandRunnerImpl implements AsyncCommandRunner {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	static final int MAX_PUMPS = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+	private static final ExecutorService PUMPS = pumps();
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("command-watchdog"));
+
+	private final File workingDirectory;
+
+	public AsyncCommandRunnerImpl(File workingDirectory) {
+		super();
+		this.workingDirectory = workingDirectory;
+	}
+
+	private static ExecutorService pumps(){
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_PUMPS, MAX_PUMPS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("command-pump"));
+		// none are kept while there's nothing to run
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	public Running start(Timeouts timeouts, Charset charset, String command, String ... args){
+		return start(timeouts, null, charset, null, command, args);
+	}
+
+	public Running start(Timeouts timeouts, OutputStream sink, InputStream input, String command, String ... args){
+		return start(timeouts, sink, null, input, command, args);
+	}
+
+	private Running start(Timeouts timeouts, OutputStream sink, Charset charset, InputStream input, String command, String ... args){
+		List<String> parts = new ArrayList<String>();
+		parts.add(command);
+		if(args!=null){
+			parts.addAll(Arrays.asList(args));
+		}
+
+		ProcessBuilder pb = new ProcessBuilder(parts.toArray(new String[parts.size()]));
+		pb.directory(workingDirectory);
+		pb.redirectErrorStream(true);
+		Process p;
+		try {
+			p = pb.start();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		Running running = new Running(new Command(p, sink, charset, input, timeouts));
+		running.command.watch();
+		PUMPS.execute(running);
+		return running;
+	}
+
+	/**
+	 * The future for one command; cancelling it kills the command.
+	 */
+	public static class Running extends FutureTask<Result> {
+		private final Command command;
+
+		private Running(Command command) {
+			super(command);
+			this.command = command;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			// cancelled first: once killed, the command would finish (normally) before long
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			command.kill(null);
+			return cancelled;
+		}
+	}
+
+	private static class Command implements Callable<Result> {
+		private final Process p;
+		private final OutputStream sink;
+		private final ByteArrayOutputStream captured;
+		/** what the captured output is decoded with */
+		private final Charset charset;
+		private final Timeouts timeouts;
+		private final long started = System.currentTimeMillis();
+		private volatile long lastOutput = started;
+		private volatile String timedOut;
+		private volatile boolean killed;
+		private volatile ScheduledFuture<?> watchdog;
+
+		Command(Process p, OutputStream sink, Charset charset, InputStream input, Timeouts timeouts) {
+			super();
+			this.p = p;
+			this.captured = sink==null?new ByteArrayOutputStream():null;
+			this.sink = sink==null?captured:sink;
+			this.charset = charset;
+			this.timeouts = timeouts;
+			if(input!=null){
+				feed(input);
+			}else{
+				IOUtils.closeQuietly(p.getOutputStream());
+			}
+		}
+
+		private void feed(final InputStream input){
+			PUMPS.execute(new Runnable() {
+				public void run() {
+					OutputStream stdin = p.getOutputStream();
+					try {
+						byte[] buffer = new byte[BUFFER_SIZE];
+						for(int n = input.read(buffer);n!=-1;n = input.read(buffer)){
+							stdin.write(buffer, 0, n);
+							stdin.flush();
+						}
+					} catch (IOException e) {
+						// the command exited or stopped reading
+					} finally {
+						// the console is the runner's, and never reaches EOF anyway
+						if(input!=System.in){
+							IOUtils.closeQuietly(input);
+						}
+						IOUtils.closeQuietly(stdin);
+					}
+				}
+			});
+		}
+
+		void watch(){
+			long shortest = Long.MAX_VALUE;
+			if(timeouts.wallMillis>0) shortest = Math.min(shortest, timeouts.wallMillis);
+			if(timeouts.idleMillis>0) shortest = Math.min(shortest, timeouts.idleMillis);
+			if(shortest==Long.MAX_VALUE){
+				return;
+			}
+			long period = Math.max(10, Math.min(1000, shortest / 4));
+			watchdog = WATCHDOG.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					long now = System.currentTimeMillis();
+					if(timeouts.wallMillis>0 && now - started > timeouts.wallMillis){
+						kill("wall");
+					}else if(timeouts.idleMillis>0 && now - lastOutput > timeouts.idleMillis){
+						kill("idle");
+					}
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+
+		public Result call() throws Exception {
+			boolean console = sink==System.out || sink==System.err;
+			InputStream stdout = p.getInputStream();
+			IOException failure = null;
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				for(int n = stdout.read(buffer);n!=-1;n = stdout.read(buffer)){
+					lastOutput = System.currentTimeMillis();
+					sink.write(buffer, 0, n);
+					if(console){
+						sink.flush();
+					}
+				}
+				sink.flush();
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				IOUtils.closeQuietly(stdout);
+				if(!console){
+					IOUtils.closeQuietly(sink);
+				}
+			}
+
+			if(failure!=null && !killed){
+				// can't tell what it's doing without its output
+				destroyTree(p);
+			}
+			int exitCode = p.waitFor();
+			if(watchdog!=null){
+				watchdog.cancel(false);
+			}
+			if(failure!=null && !killed){
+				throw failure;
+			}
+			return new Result(exitCode, captured==null?null:new String(captured.toByteArray(), charset), timedOut);
+		}
+
+		synchronized void kill(String reason){
+			if(timedOut==null && reason!=null){
+				Log.warn("Killing command after " + (System.currentTimeMillis() - started) + " ms (" + reason + " timeout)");
+				timedOut = reason;
+			}
+			killed = true;
+			if(watchdog!=null){
+				watchdog.cancel(false);
+			}
+			destroyTree(p);
+		}
+	}
+
+	/**
+	 * Kills the process and, where the JVM can list them (Java 9+), all of its descendants.
+	 */
+	static void destroyTree(Process p){
+		try {
+			Class<?> handle = Class.forName("java.lang.ProcessHandle");
+			Class<?> stream = Class.forName("java.util.stream.Stream");
+			Method destroyForcibly = handle.getMethod("destroyForcibly");
+
+			Object self = Process.class.getMethod("toHandle").invoke(p);
+			Object descendants = handle.getMethod("descendants").invoke(self);
+			for(Object next : (Object[]) stream.getMethod("toArray").invoke(descendants)){
+				destroyForcibly.invoke(next);
+			}
+		} catch (ClassNotFoundException e) {
+			// before Java 9: only the process itself
+		} catch (Exception e) {
+			Log.debug("Unable to kill the descendants of a command: " + e);
+		}
+		p.destroy();
+	}
+}
@@ -0,0 +1,13 @@
+package com.cj.robokata;
+
+import java.util.List;
+
+import com.cj.robokata.Tournament.Battle;
+import com.cj.robokata.Tournament.Score;
+
+/**
+ * Fights one battle and reports how every robot in it placed.
+ */
+interface BattleRunner {
+	List<Score> fight(Battle battle) throws Exception;
+}
@@ -0,0 +1,168 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The rules of a battle and how robocode should present it.
+ *
+ * Starts from a named profile (<code>-Drobokata.battle.profile</code>), then applies a properties
+ * file (<code>-Drobokata.battle=path</code>), then any single <code>-Drobokata.battle.&lt;key&gt;</code>
+ * from the command line, using the keys in {@link #KEYS}.
+ */
+class BattleSpec {
+	static final String[] KEYS = {"numRounds", "gunCoolingRate", "width", "height", "inactivityTime", "hideEnemyNames", "display", "sound", "tps"};
+
+	int numRounds = 3;
+	double gunCoolingRate = 0.1;
+	int width = 800;
+	int height = 600;
+	int inactivityTime = 450;
+	boolean hideEnemyNames = false;
+	boolean display = true;
+	boolean sound = true;
+	/**
+	 * Turns per second; 0 leaves robocode's own setting alone.
+	 */
+	int tps = 0;
+
+	/**
+	 * The classic kata melee: what the runner always did.
+	 */
+	static BattleSpec standard(){
+		return new BattleSpec();
+	}
+
+	/**
+	 * For big qualifying rounds: nothing rendered, as fast as the CPU allows, on the
+	 * smallest field robocode accepts.  Inactivity is cut to a third, which still ends
+	 * stalemates well after any robot that's actually fighting would have.
+	 */
+	static BattleSpec turbo(){
+		BattleSpec spec = new BattleSpec();
+		spec.display = false;
+		spec.sound = false;
+		spec.tps = 10000;
+		spec.width = 400;
+		spec.height = 400;
+		spec.inactivityTime = 150;
+		return spec;
+	}
+
+	static BattleSpec profile(String name){
+		if(name.equals("standard")){
+			return standard();
+		}else if(name.equals("turbo")){
+			return turbo();
+		}
+		throw new RuntimeException("Unknown battle profile '" + name + "', expected 'standard' or 'turbo'");
+	}
+
+	static BattleSpec fromSystemProperties(){
+		BattleSpec spec = profile(System.getProperty("robokata.battle.profile", "standard"));
+
+		String file = System.getProperty("robokata.battle");
+		if(file!=null){
+			spec.apply(load(new File(file)), "");
+		}
+		spec.apply(System.getProperties(), "robokata.battle.");
+		return spec;
+	}
+
+	private void apply(Properties props, String prefix){
+		for(String key : KEYS){
+			String value = props.getProperty(prefix + key);
+			if(value!=null){
+				set(key, value.trim());
+			}
+		}
+	}
+
+	private void set(String key, String value){
+		if(key.equals("numRounds")) numRounds = Integer.parseInt(value);
+		else if(key.equals("gunCoolingRate")) gunCoolingRate = Double.parseDouble(value);
+		else if(key.equals("width")) width = Integer.parseInt(value);
+		else if(key.equals("height")) height = Integer.parseInt(value);
+		else if(key.equals("inactivityTime")) inactivityTime = Integer.parseInt(value);
+		else if(key.equals("hideEnemyNames")) hideEnemyNames = Boolean.parseBoolean(value);
+		else if(key.equals("display")) display = Boolean.parseBoolean(value);
+		else if(key.equals("sound")) sound = Boolean.parseBoolean(value);
+		else if(key.equals("tps")) tps = Integer.parseInt(value);
+	}
+
+	/**
+	 * What goes into the <code>.battle</code> file, minus the robots.
+	 */
+	Properties battleProperties(){
+		Properties props = new Properties();
+		props.put("robocode.battle.numRounds", String.valueOf(numRounds));
+		props.put("robocode.battle.gunCoolingRate", String.valueOf(gunCoolingRate));
+		props.put("robocode.battleField.width", String.valueOf(width));
+		props.put("robocode.battle.rules.inactivityTime", String.valueOf(inactivityTime));
+		props.put("robocode.battle.hideEnemyNames", String.valueOf(hideEnemyNames));
+		props.put("robocode.battleField.height", String.valueOf(height));
+		return props;
+	}
+
+	/**
+	 * Flags for robocode's launch script, after <code>-battle</code>.
+	 */
+	List<String> launcherArgs(){
+		List<String> args = new ArrayList<String>();
+		if(!display){
+			args.add("-nodisplay");
+		}
+		if(!sound){
+			args.add("-nosound");
+		}
+		return args;
+	}
+
+	/**
+	 * TPS isn't part of a battle file; robocode reads it from its own config, so it's written
+	 * into the (private) config directory of the given robocode home.
+	 */
+	void configure(File robocodeHome) throws IOException {
+		if(tps<=0){
+			return;
+		}
+		File config = new File(new File(robocodeHome, "config"), "robocode.properties");
+		Properties props = config.isFile()?load(config):new Properties();
+		props.put("robocode.options.battle.desiredTPS", String.valueOf(tps));
+
+		config.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(config);
+		try{
+			props.store(out, "robocode options");
+		}finally{
+			out.close();
+		}
+	}
+
+	private static Properties load(File file){
+		try {
+			Properties props = new Properties();
+			InputStream in = new FileInputStream(file);
+			try{
+				props.load(in);
+			}finally{
+				in.close();
+			}
+			return props;
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read " + file.getAbsolutePath(), e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return numRounds + " rounds on " + width + "x" + height + ", gun cooling " + gunCoolingRate + ", inactivity " + inactivityTime
+				+ (display?"":", no display") + (sound?"":", no sound") + (tps>0?", " + tps + " tps":"");
+	}
+}
@@ -0,0 +1,29 @@
+package com.cj.robokata;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time comes from, and how it's waited out, so what expires or backs off can be
+ * tested without waiting for it to.
+ */
+interface Clock {
+	long millis();
+
+	/**
+	 * Waits up to <code>millis</code> for <code>latch</code> to be released.
+	 *
+	 * @return whether it was
+	 */
+	boolean await(CountDownLatch latch, long millis) throws InterruptedException;
+
+	Clock SYSTEM = new Clock() {
+		public long millis() {
+			return System.currentTimeMillis();
+		}
+
+		public boolean await(CountDownLatch latch, long millis) throws InterruptedException {
+			return latch.await(millis, TimeUnit.MILLISECONDS);
+		}
+	};
+}
@@ -2,11 +2,20 @@ package com.cj.robokata;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 
 public interface CommandRunner {
 
 	void run(OutputStream sink, InputStream input, String command, String ... args);
 
+	/**
+	 * Hands the command's output to <code>lines</code> a line at a time, as it's printed, rather
+	 * than holding on to it.
+	 *
+	 * @param charset what the command prints in
+	 */
+	void run(LineSink lines, Charset charset, InputStream input, String command, String ... args);
+
 	void runPassThrough(String command, String ... args);
 
 	String run(InputStream in, String command, String ... args);
@@ -2,12 +2,13 @@ package com.cj.robokata;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutionException;
+
+import com.cj.robokata.AsyncCommandRunner.Result;
+import com.cj.robokata.AsyncCommandRunner.Timeouts;
 
 public class CommandRunnerImpl implements CommandRunner {
 	
@@ -31,100 +32,55 @@ public class CommandRunnerImpl implements CommandRunner {
 	}
 	
 	public void runPassThrough(String command, String ... args){
-		run(null, System.in, command, args);
+		run((OutputStream) null, System.in, command, args);
+	}
+	
+	public void run(LineSink lines, Charset charset, InputStream input, String command, String ... args){
+		run(Timeouts.NONE, new LineSplitter(lines, charset), input, command, args);
 	}
 	
 	public void run(OutputStream sink, InputStream input, String command, String ... args){
+		run(Timeouts.NONE, sink, input, command, args);
+	}
+	
+	/**
+	 * Like {@link #run(OutputStream, InputStream, String, String...)}, but kills the command
+	 * (and fails) once it takes longer than <code>timeouts</code> allow.
+	 */
+	public void run(Timeouts timeouts, OutputStream sink, InputStream input, String command, String ... args){
+		Metrics.Timer timer = Metrics.start("command", "command", new File(command).getName());
 		try {
-			List<String> parts = new LinkedList<String>();
-			parts.add(command);
+			StringBuilder line = new StringBuilder("[COMMAND] ").append(command);
 			if(args!=null){
-				parts.addAll(Arrays.asList(args));
-			}
-			
-			System.out.print("[COMMAND]");
-			for(String next : parts){
-				System.out.print(" " + next);
-			}
-			System.out.println();
-			
-			
-			ProcessBuilder pb = new ProcessBuilder(parts.toArray(new String[parts.size()]));
-			pb.directory(workingDirectory);
-			pb.redirectErrorStream(true);
-			int returnCode = new ShellProcess(
-									pb.start(),
-									sink,
-									input
-								).waitFor();
-			
-			if(returnCode!=0){
-				throw new RuntimeException("Error: command returned " + returnCode);
-			}else{
-				System.out.println("[COMMAND-RETURN] " + returnCode);
+				for(String next : args){
+					line.append(" ").append(next);
+				}
 			}
+			Log.info(line.toString());
+			// the process writes straight to the console
+			Log.flush();
 			
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-		
-	}
-	
-	private static class ShellProcess {
-		private final Process p;
-		private StreamConduit stdOut;
-		private StreamConduit stdErr;
-		private StreamConduit stdIn;
-		
-		public ShellProcess(Process p, OutputStream outputSink, InputStream input) {
-			super();
-			this.p = p;
-			
-			stdOut = new StreamConduit(p.getInputStream(), outputSink!=null?outputSink:System.out);
-			stdErr = new StreamConduit(p.getErrorStream(), System.err);
-			if(input!=null){
-				stdIn = new StreamConduit(input, p.getOutputStream());
-			}
-		}
-		
-		public int waitFor(){
+			AsyncCommandRunnerImpl.Running running = new AsyncCommandRunnerImpl(workingDirectory).start(timeouts, sink==null?System.out:sink, input, command, args);
+			Result result;
 			try {
-				stdOut.join();
-				stdErr.join();
-				if(stdIn!=null){
-					stdIn.join();
-				}
-				return p.waitFor();
+				result = running.get();
 			} catch (InterruptedException e) {
+				running.cancel(true);
 				throw new RuntimeException(e);
 			}
-		}
-	}
-	
-	private static class StreamConduit extends Thread {
-		private final InputStream in;
-		private final OutputStream out;
-		
-		public StreamConduit(InputStream in, OutputStream out) {
-			super();
-			this.in = in;
-			this.out = out;
-			start();
-		}
-		
-		@Override
-		public void run() {
 			
-			try {
-				for(int bite = in.read();bite!=-1;bite = in.read()){
-					out.write(bite);
-				}
-				in.close();
-				out.close();
-				
-			} catch (IOException e) {
-				throw new RuntimeException(e);
+			if(result.timedOut!=null){
+				throw new RuntimeException("Error: command killed after exceeding its " + result.timedOut + " timeout");
+			}else if(result.exitCode!=0){
+				throw new RuntimeException("Error: command returned " + result.exitCode);
+			}else{
+				Log.debug("[COMMAND-RETURN] " + result.exitCode);
 			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			timer.stop();
 		}
+		
 	}
 }
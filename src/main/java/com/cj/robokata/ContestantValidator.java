@@ -0,0 +1,290 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Checks contestant jars side by side before anything of theirs goes into the robocode home.
+ *
+ * Nothing from a jar is loaded or run (see {@link RobotClassScanner}), and each jar is opened,
+ * read and closed by one task.  Each is held to its own limits: how long it may take, how big
+ * it and any class in it may be, how many entries it may have, and how much they may inflate
+ * to, in all and compared to their size in the jar.  The sizes are checked from the jar's
+ * central directory before anything is inflated (see {@link JarInspector}), and only classes
+ * are inflated after that, so a jar that breaks a limit costs next to nothing.  It's
+ * disqualified rather than failing the kata.
+ *
+ * A jar that's byte for byte the same as one being checked waits for that one's verdict
+ * instead of being checked too.
+ */
+class ContestantValidator {
+
+	static class Limits {
+		final long timeoutMillis;
+		/** the jar itself */
+		final long maxJarBytes;
+		final int maxEntries;
+		final long maxClassBytes;
+		/** everything in the jar, inflated */
+		final long maxTotalBytes;
+		/** how much more any entry over 64 KB may inflate to than it takes up in the jar */
+		final double maxRatio;
+
+		Limits(long timeoutMillis, long maxJarBytes, int maxEntries, long maxClassBytes, long maxTotalBytes, double maxRatio) {
+			super();
+			this.timeoutMillis = timeoutMillis;
+			this.maxJarBytes = maxJarBytes;
+			this.maxEntries = maxEntries;
+			this.maxClassBytes = maxClassBytes;
+			this.maxTotalBytes = maxTotalBytes;
+			this.maxRatio = maxRatio;
+		}
+
+		static Limits fromSystemProperties() {
+			return new Limits(
+					Long.getLong("robokata.validate.timeoutSeconds", 30) * 1000,
+					Long.getLong("robokata.validate.maxJarMB", 32) * 1024 * 1024,
+					Integer.getInteger("robokata.validate.maxEntries", 10000),
+					Long.getLong("robokata.validate.maxClassKB", 1024) * 1024,
+					Long.getLong("robokata.validate.maxMB", 64) * 1024 * 1024,
+					Double.parseDouble(System.getProperty("robokata.validate.maxRatio", "100")));
+		}
+
+		/**
+		 * @return the limits as one word, the same for the same limits
+		 */
+		String fingerprint(){
+			return timeoutMillis + "/" + maxJarBytes + "/" + maxEntries + "/" + maxClassBytes + "/" + maxTotalBytes + "/" + maxRatio;
+		}
+	}
+
+	static class Verdict {
+		/** binary names of the robots found, empty if disqualified */
+		final List<String> robots;
+		/** why the jar can't take part, or null if it can */
+		final String disqualification;
+		/** of the jar's content, or null if it couldn't be read */
+		final String sha256;
+
+		Verdict(List<String> robots, String disqualification) {
+			this(robots, disqualification, null);
+		}
+
+		Verdict(List<String> robots, String disqualification, String sha256) {
+			super();
+			this.robots = robots;
+			this.disqualification = disqualification;
+			this.sha256 = sha256;
+		}
+
+		boolean qualified(){
+			return disqualification==null;
+		}
+	}
+
+	private final ExecutorService pool;
+	private final Limits limits;
+	private final ScanCache cache;
+	/** scans under way, by SHA-256, so a byte-identical jar waits for the first one's verdict */
+	private final ConcurrentMap<String, FutureTask<Verdict>> inFlight = new ConcurrentHashMap<String, FutureTask<Verdict>>();
+
+	public ContestantValidator(ExecutorService pool, Limits limits) {
+		this(pool, limits, null);
+	}
+
+	/**
+	 * @param cache robots already found in jars with the same content, or null
+	 */
+	public ContestantValidator(ExecutorService pool, Limits limits, ScanCache cache) {
+		super();
+		this.pool = pool;
+		this.limits = limits;
+		this.cache = cache;
+	}
+
+	public Future<Verdict> submit(File jar) {
+		return submit(jar, null);
+	}
+
+	/**
+	 * @param index from the jar's download, if it was indexed then; only the jar's central
+	 *        directory is read to confirm it
+	 * @return a verdict that includes the jar's SHA-256
+	 */
+	public Future<Verdict> submit(final File jar, final JarIndex index) {
+		return pool.submit(new Callable<Verdict>() {
+			public Verdict call() throws InterruptedException {
+				Metrics.Timer timer = Metrics.start("scan", "jar", jar.getName());
+				try{
+					String sha256;
+					try{
+						sha256 = index!=null?index.sha256:KataManifest.sha256(jar);
+					}catch(IOException e){
+						return disqualified(e.getMessage()==null?e.toString():e.getMessage());
+					}
+					Verdict verdict = verdictFor(jar, index, sha256);
+					return new Verdict(verdict.robots, verdict.disqualification, sha256);
+				}finally{
+					timer.stop();
+				}
+			}
+		});
+	}
+
+	/**
+	 * The robots cached for this SHA-256, or else the verdict on a byte-identical jar that's
+	 * being scanned right now, or else the verdict from scanning this one.
+	 */
+	private Verdict verdictFor(final File jar, final JarIndex index, String sha256) throws InterruptedException {
+		List<String> known = cache==null?null:cache.get(sha256, limits);
+		if(known!=null){
+			Metrics.count("scan_cache", 1, "result", "hit");
+			return new Verdict(known, null);
+		}
+
+		FutureTask<Verdict> scan = new FutureTask<Verdict>(new Callable<Verdict>() {
+			public Verdict call() {
+				if(index!=null && index.verdict!=null){
+					return index.verdict.qualified()?confirm(jar, index):index.verdict;
+				}
+				return validate(jar);
+			}
+		});
+		FutureTask<Verdict> running = inFlight.putIfAbsent(sha256, scan);
+		if(running!=null){
+			Metrics.count("scan_cache", 1, "result", "in_flight");
+			return verdict(running);
+		}
+		try{
+			// the scan before this one may have finished (and been cached) since the cache was looked in
+			known = cache==null?null:cache.get(sha256, limits);
+			if(known!=null){
+				Metrics.count("scan_cache", 1, "result", "hit");
+				return new Verdict(known, null);
+			}
+			Metrics.count("scan_cache", 1, "result", "miss");
+			scan.run();
+			Verdict verdict = verdict(scan);
+			if(cache!=null && verdict.qualified()){
+				cache.put(sha256, limits, verdict.robots);
+			}
+			return verdict;
+		}finally{
+			inFlight.remove(sha256, scan);
+		}
+	}
+
+	/**
+	 * Waits for a verdict from {@link #submit(File, JarIndex)}; a task that failed outright disqualifies its jar too.
+	 */
+	public static Verdict verdict(Future<Verdict> pending) throws InterruptedException {
+		try{
+			return pending.get();
+		}catch(ExecutionException e){
+			return disqualified("validation failed: " + e.getCause());
+		}
+	}
+
+	Verdict validate(File jar) {
+		long deadline = System.currentTimeMillis() + limits.timeoutMillis;
+		try{
+			JarInspector inspector = JarInspector.open(jar, limits.maxJarBytes, limits.maxEntries);
+			try{
+				// everything the jar claims is checked before any of it is inflated
+				String broken = inspector.check(limits.maxTotalBytes, limits.maxRatio);
+				if(broken!=null){
+					return disqualified(broken);
+				}
+				RobotClassScanner scanner = new RobotClassScanner();
+				for(JarInspector.Entry next : inspector.entries()){
+					if(next.isDirectory() || !next.name.endsWith(".class")){
+						continue;
+					}
+					if(next.size > limits.maxClassBytes){
+						return disqualified(next.name + " is " + next.size + " bytes, more than " + limits.maxClassBytes);
+					}
+					if(System.currentTimeMillis() > deadline){
+						return disqualified("took longer than " + limits.timeoutMillis + " ms to check");
+					}
+					scanner.add(inspector.read(next));
+				}
+
+				List<String> robots = scanner.robotClasses();
+				if(robots.isEmpty()){
+					return disqualified("no robot classes");
+				}
+				return new Verdict(robots, null);
+			}finally{
+				inspector.close();
+			}
+		}catch(IOException e){
+			return disqualified(e.getMessage()==null?e.toString():e.getMessage());
+		}catch(RuntimeException e){
+			return disqualified(e.toString());
+		}catch(StackOverflowError e){
+			return disqualified(e.toString());
+		}
+	}
+
+	/**
+	 * A jar's entries are listed twice, in a header before each one and in the central directory
+	 * at the end.  The download followed the first, and what's unzipped later follows the second,
+	 * so the second has to keep to the limits too, and list the same entries with the same sizes
+	 * and CRCs.  If it doesn't, the download's verdict doesn't count and the jar is scanned again
+	 * as it will be unzipped.
+	 */
+	Verdict confirm(File jar, JarIndex index) {
+		try{
+			JarInspector inspector = JarInspector.open(jar, limits.maxJarBytes, limits.maxEntries);
+			try{
+				String broken = inspector.check(limits.maxTotalBytes, limits.maxRatio);
+				if(broken!=null){
+					return disqualified(broken);
+				}
+				if(!matches(inspector.entries(), index.entries)){
+					Log.debug("The central directory of " + jar.getName() + " doesn't match what was downloaded, checking it again");
+					return validate(jar);
+				}
+				return index.verdict;
+			}finally{
+				inspector.close();
+			}
+		}catch(IOException e){
+			return disqualified(e.getMessage()==null?e.toString():e.getMessage());
+		}catch(RuntimeException e){
+			return disqualified(e.toString());
+		}
+	}
+
+	private static boolean matches(List<JarInspector.Entry> listed, List<JarIndex.Entry> streamed){
+		Map<String, JarIndex.Entry> byName = new HashMap<String, JarIndex.Entry>();
+		for(JarIndex.Entry next : streamed){
+			byName.put(next.name, next);
+		}
+		if(listed.size()!=streamed.size() || byName.size()!=streamed.size()){
+			return false;
+		}
+		for(JarInspector.Entry next : listed){
+			JarIndex.Entry seen = byName.get(next.name);
+			if(seen==null || seen.size!=next.size || seen.crc!=next.crc){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static Verdict disqualified(String reason){
+		return new Verdict(Collections.<String>emptyList(), reason);
+	}
+}
@@ -0,0 +1,23 @@
+package com.cj.robokata;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background workers must never keep the runner alive once the game is over.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger();
+
+	public DaemonThreadFactory(String name) {
+		super();
+		this.name = name;
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+}
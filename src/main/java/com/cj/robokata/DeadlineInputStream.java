@@ -0,0 +1,48 @@
+package com.cj.robokata;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails once a deadline has passed, so a server that trickles a response out can't hold on to
+ * us for longer than that, however well inside the read timeout each byte arrives.
+ */
+class DeadlineInputStream extends FilterInputStream {
+	private final long deadline;
+	private final String what;
+
+	/**
+	 * @param deadline as {@link System#currentTimeMillis()}
+	 * @param what is being read, for the {@link IOException} once the deadline has passed
+	 */
+	DeadlineInputStream(InputStream in, long deadline, String what) {
+		super(in);
+		this.deadline = deadline;
+		this.what = what;
+	}
+
+	@Override
+	public int read() throws IOException {
+		check();
+		return super.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		check();
+		return super.read(b, off, len);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		check();
+		return super.skip(n);
+	}
+
+	private void check() throws IOException {
+		if(System.currentTimeMillis() > deadline){
+			throw new IOException("Gave up on " + what + ", it took too long");
+		}
+	}
+}
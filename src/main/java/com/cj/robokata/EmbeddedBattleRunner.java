@@ -0,0 +1,90 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import robocode.BattleResults;
+import robocode.control.BattleSpecification;
+import robocode.control.BattlefieldSpecification;
+import robocode.control.RobocodeEngine;
+import robocode.control.RobotSpecification;
+import robocode.control.events.BattleAdaptor;
+import robocode.control.events.BattleCompletedEvent;
+import robocode.control.events.BattleErrorEvent;
+
+import com.cj.robokata.Tournament.Battle;
+import com.cj.robokata.Tournament.Score;
+
+/**
+ * Fights battles inside the runner's JVM through robocode's control API: no new JVM, a
+ * display only if the spec asks for one, and the engine stays warm from one battle to the next.
+ *
+ * Robocode keeps global state, so there is one engine per runner and battles on it
+ * take turns.
+ */
+class EmbeddedBattleRunner implements BattleRunner {
+	private final RobocodeEngine engine;
+	private final BattleSpec spec;
+	private final Listener listener = new Listener();
+
+	private static class Listener extends BattleAdaptor {
+		private BattleResults[] results;
+		private final List<String> errors = new ArrayList<String>();
+
+		@Override
+		public synchronized void onBattleCompleted(BattleCompletedEvent event) {
+			results = event.getSortedResults();
+		}
+
+		@Override
+		public synchronized void onBattleError(BattleErrorEvent event) {
+			errors.add(event.getError());
+		}
+
+		synchronized void reset(){
+			results = null;
+			errors.clear();
+		}
+	}
+
+	/**
+	 * @param robocodeHome an extracted robocode distribution with the contestants already in its robots/ directory
+	 */
+	public EmbeddedBattleRunner(File robocodeHome, BattleSpec spec) {
+		super();
+		this.spec = spec;
+		engine = new RobocodeEngine(robocodeHome);
+		engine.setVisible(spec.display);
+		engine.addBattleListener(listener);
+	}
+
+	public synchronized List<Score> fight(Battle battle) {
+		RobotSpecification[] robots = engine.getLocalRepository(Main.selectedRobots(battle.robots));
+		if(robots.length!=battle.robots.size()){
+			Log.warn("Battle " + battle.name + ": robocode only found " + robots.length + " of " + battle.robots.size() + " robots");
+		}
+
+		Log.debug("Starting battle " + battle.name);
+		listener.reset();
+		engine.runBattle(
+				new BattleSpecification(spec.numRounds, spec.inactivityTime, spec.gunCoolingRate, new BattlefieldSpecification(spec.width, spec.height), robots),
+				true);
+
+		synchronized (listener) {
+			if(listener.results==null){
+				throw new RuntimeException("Battle " + battle.name + " did not complete: " + listener.errors);
+			}
+			List<Score> scores = new ArrayList<Score>();
+			for(BattleResults next : listener.results){
+				scores.add(new Score(next.getRank(), Tournament.robotName(next.getTeamLeaderName()), next.getScore()));
+			}
+			return scores;
+		}
+	}
+
+	public void close(){
+		engine.removeBattleListener(listener);
+		engine.close();
+	}
+}
@@ -0,0 +1,203 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.io.IOUtils;
+
+import com.cj.robokata.Main.JarReference;
+
+/**
+ * Fetches contestant jars concurrently, never running more than
+ * <code>perHostLimit</code> downloads against the same host at once, nor more than
+ * <code>maxDownloads</code> in all (downloads waiting on their host count too).
+ * Each jar has <code>deadlineMillis</code> to download in, from when it gets its turn.
+ * Finished jars are handed back in completion order through {@link #take()},
+ * so the caller can start unzipping/scanning while the rest are still coming in.
+ * Jars are indexed as they download (see {@link JarIndex}), so most never need
+ * reading again before they're unzipped.
+ */
+class JarDownloader {
+
+	static class Download {
+		final JarReference jar;
+		final File file;
+		/** null if the jar wasn't downloaded just now (a local jar, or unchanged in the store) */
+		final JarIndex index;
+		final Exception error;
+
+		private Download(JarReference jar, File file, JarIndex index, Exception error) {
+			super();
+			this.jar = jar;
+			this.file = file;
+			this.index = index;
+			this.error = error;
+		}
+
+		boolean failed(){
+			return error!=null;
+		}
+	}
+
+	private final File destDir;
+	private final ArtifactStore store;
+	private final int perHostLimit;
+	private final int timeoutMillis;
+	private final long deadlineMillis;
+	private final ContestantValidator.Limits limits;
+	private final ExecutorService pool;
+	private final CompletionService<Download> completed;
+	private final Map<String, Semaphore> permitsByHost = new HashMap<String, Semaphore>();
+	private final Set<String> namesInUse = new HashSet<String>();
+	private int pending = 0;
+
+	/**
+	 * @param timeoutMillis for connecting, and for each read
+	 * @param deadlineMillis for the whole download
+	 */
+	public JarDownloader(File destDir, ArtifactStore store, int maxDownloads, int perHostLimit, int timeoutMillis, long deadlineMillis, ContestantValidator.Limits limits) {
+		super();
+		if(perHostLimit<1){
+			throw new IllegalArgumentException("perHostLimit must be at least 1, not " + perHostLimit);
+		}
+		if(maxDownloads<perHostLimit){
+			throw new IllegalArgumentException("maxDownloads must be at least perHostLimit (" + perHostLimit + "), not " + maxDownloads);
+		}
+		this.destDir = destDir;
+		this.store = store;
+		this.perHostLimit = perHostLimit;
+		this.timeoutMillis = timeoutMillis;
+		this.deadlineMillis = deadlineMillis;
+		this.limits = limits;
+		this.pool = Executors.newFixedThreadPool(maxDownloads, new DaemonThreadFactory("jar-download"));
+		this.completed = new ExecutorCompletionService<Download>(pool);
+	}
+
+	public void submit(final JarReference jar){
+		final File dest = new File(destDir, uniqueName(jar.name()));
+		pending++;
+		completed.submit(new Callable<Download>() {
+			public Download call() {
+				try {
+					return fetch(jar, dest);
+				} catch (Exception e) {
+					return new Download(jar, null, null, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Keeps downloads from being saved as <code>fileName</code>, which belongs to a jar from an earlier run.
+	 */
+	public void reserve(String fileName){
+		namesInUse.add(fileName);
+	}
+
+	public boolean hasPending(){
+		return pending>0;
+	}
+
+	/**
+	 * Blocks until the next download finishes, successfully or not.
+	 */
+	public Download take(){
+		if(pending==0){
+			throw new IllegalStateException("Nothing left to download");
+		}
+		try {
+			Download next = completed.take().get();
+			pending--;
+			return next;
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public void shutdown(){
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Several jobs may archive a jar with the same file name, and they can now be
+	 * in flight at the same time, so each one gets its own file.
+	 */
+	private String uniqueName(String name){
+		String candidate = name;
+		for(int x=2;!namesInUse.add(candidate);x++){
+			candidate = x + "-" + name;
+		}
+		return candidate;
+	}
+
+	private Download fetch(JarReference jar, File dest) throws Exception {
+		URL source = jar.url();
+
+		if(source.getProtocol().equals("file")){
+			return new Download(jar, new File(source.getPath()), null, null);
+		}
+
+		Semaphore permits = permitsFor(source.getHost());
+		permits.acquire();
+		try{
+			Metrics.Timer timer = Metrics.start("download", "jar", dest.getName());
+			long deadline = System.currentTimeMillis() + deadlineMillis;
+			JarIndex index;
+			if(jar.storeKey()!=null){
+				index = store.fetch(source, jar.storeKey(), dest, timeoutMillis, deadline, limits);
+			}else{
+				index = get(source, dest, deadline);
+			}
+			timer.stop();
+			Metrics.count("download_bytes", dest.length(), "jar", dest.getName());
+			return new Download(jar, dest, index, null);
+		}finally{
+			permits.release();
+		}
+	}
+
+	private synchronized Semaphore permitsFor(String host){
+		Semaphore permits = permitsByHost.get(host);
+		if(permits==null){
+			permits = new Semaphore(perHostLimit);
+			permitsByHost.put(host, permits);
+		}
+		return permits;
+	}
+
+	private JarIndex get(URL url, File dest, long deadline) throws Exception {
+		Log.debug("Downloading " + url + " to " + dest.getAbsolutePath());
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+
+		// opened first, so a file that can't be written doesn't leave the connection open
+		FileOutputStream out = new FileOutputStream(dest);
+		try{
+			InputStream in = new DeadlineInputStream(connection.getInputStream(), deadline, url.toString());
+			try{
+				return JarIndex.copy(in, out, limits);
+			}finally{
+				IOUtils.closeQuietly(in);
+			}
+		}finally{
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.cj.robokata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * What's learned about a contestant jar while it downloads, in the same pass that saves it: its
+ * SHA-256, its entries (from their local headers, as they go by, with the size and CRC of what
+ * each inflated to) and, held to the
+ * {@link ContestantValidator.Limits}, a verdict on its robots.  Only class entries are buffered,
+ * one at a time; everything else is inflated to be counted and dropped.
+ *
+ * A jar the stream can't be followed through (an entry stored with a trailing size, say) still
+ * downloads, just without a verdict, and gets checked from disk instead.
+ */
+class JarIndex {
+	private static final long RATIO_FLOOR = 64 * 1024;
+
+	static class Entry {
+		final String name;
+		/** inflated */
+		final long size;
+		final long crc;
+
+		Entry(String name, long size, long crc) {
+			super();
+			this.name = name;
+			this.size = size;
+			this.crc = crc;
+		}
+	}
+
+	final String sha256;
+	final long size;
+	/** in the order they went by */
+	final List<Entry> entries;
+	/** or null if the jar couldn't be followed as it streamed */
+	final ContestantValidator.Verdict verdict;
+
+	private JarIndex(String sha256, long size, List<Entry> entries, ContestantValidator.Verdict verdict) {
+		super();
+		this.sha256 = sha256;
+		this.size = size;
+		this.entries = entries;
+		this.verdict = verdict;
+	}
+
+	/**
+	 * Copies <code>in</code> to <code>out</code> (closing neither), indexing it on the way.
+	 *
+	 * @throws IOException if either fails, or <code>in</code> goes on past <code>limits.maxJarBytes</code>
+	 */
+	public static JarIndex copy(InputStream in, OutputStream out, ContestantValidator.Limits limits) throws IOException {
+		Pass pass = new Pass(in, out, limits.maxJarBytes);
+		List<Entry> entries = new ArrayList<Entry>();
+		ContestantValidator.Verdict verdict;
+		try{
+			verdict = index(new ZipInputStream(pass), entries, limits);
+		}catch(ZipException e){
+			Log.debug("Unable to follow a jar as it downloads, it will be checked once saved: " + e.getMessage());
+			verdict = null;
+		}
+		// the rest, e.g. the central directory, goes by unread
+		byte[] buffer = new byte[16 * 1024];
+		while(pass.read(buffer)!=-1){
+		}
+		return new JarIndex(pass.sha256(), pass.count, Collections.unmodifiableList(entries), verdict);
+	}
+
+	private static ContestantValidator.Verdict index(ZipInputStream zip, List<Entry> entries, ContestantValidator.Limits limits) throws IOException {
+		// what arrives is at the network's pace, so only the time spent scanning it counts
+		long scanning = 0;
+		RobotClassScanner scanner = new RobotClassScanner();
+		long total = 0;
+		byte[] buffer = new byte[16 * 1024];
+		CRC32 crc = new CRC32();
+		int count = 0;
+		for(ZipEntry next = zip.getNextEntry();next!=null;next = zip.getNextEntry()){
+			if(++count > limits.maxEntries){
+				return ContestantValidator.disqualified("more than " + limits.maxEntries + " entries");
+			}
+			boolean isClass = !next.isDirectory() && next.getName().endsWith(".class");
+			ByteArrayOutputStream classFile = isClass?new ByteArrayOutputStream():null;
+			long size = 0;
+			crc.reset();
+			for(int n = zip.read(buffer);n!=-1;n = zip.read(buffer)){
+				size += n;
+				crc.update(buffer, 0, n);
+				if(total + size > limits.maxTotalBytes){
+					return ContestantValidator.disqualified("inflates to more than " + limits.maxTotalBytes + " bytes");
+				}
+				if(isClass){
+					if(size > limits.maxClassBytes){
+						return ContestantValidator.disqualified(next.getName() + " is more than " + limits.maxClassBytes + " bytes");
+					}
+					classFile.write(buffer, 0, n);
+				}
+			}
+			total += size;
+			entries.add(new Entry(next.getName(), size, crc.getValue()));
+			// only known once the entry has been read
+			long compressed = next.getCompressedSize();
+			if(size > RATIO_FLOOR && compressed>=0 && size > limits.maxRatio * Math.max(1, compressed)){
+				return ContestantValidator.disqualified(next.getName() + " is compressed " + (size / Math.max(1, compressed)) + " to 1, more than " + Math.round(limits.maxRatio) + " to 1");
+			}
+			if(isClass){
+				long started = System.nanoTime();
+				try{
+					scanner.add(classFile.toByteArray());
+				}catch(IOException e){
+					return ContestantValidator.disqualified(next.getName() + ": " + e.getMessage());
+				}
+				scanning += System.nanoTime() - started;
+				if(scanning / 1000000 > limits.timeoutMillis){
+					return tooSlow(limits);
+				}
+			}
+		}
+
+		long started = System.nanoTime();
+		List<String> robots = scanner.robotClasses();
+		if((scanning + System.nanoTime() - started) / 1000000 > limits.timeoutMillis){
+			return tooSlow(limits);
+		}
+		if(robots.isEmpty()){
+			return ContestantValidator.disqualified("no robot classes");
+		}
+		return new ContestantValidator.Verdict(robots, null);
+	}
+
+	private static ContestantValidator.Verdict tooSlow(ContestantValidator.Limits limits){
+		return ContestantValidator.disqualified("took longer than " + limits.timeoutMillis + " ms to check");
+	}
+
+	/**
+	 * Everything read through it is hashed, counted (up to a limit) and copied out.
+	 */
+	private static class Pass extends FilterInputStream {
+		private final OutputStream out;
+		private final long max;
+		private final MessageDigest digest;
+		long count = 0;
+
+		Pass(InputStream in, OutputStream out, long max) {
+			super(in);
+			this.out = out;
+			this.max = max;
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1)==-1?-1:one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n>0){
+				count += n;
+				if(count > max){
+					throw new IOException("The jar is more than " + max + " bytes");
+				}
+				digest.update(b, off, n);
+				out.write(b, off, n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped bytes still have to be copied and hashed
+			byte[] buffer = new byte[(int) Math.min(n, 16 * 1024)];
+			int read = read(buffer, 0, buffer.length);
+			return Math.max(0, read);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// the caller's streams, not ours
+		}
+
+		String sha256(){
+			return RobocodeDistribution.hex(digest.digest());
+		}
+	}
+}
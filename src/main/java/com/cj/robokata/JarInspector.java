@@ -0,0 +1,323 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a jar's table of contents (the zip central directory, at the end of the file) straight
+ * from a memory mapping of it, so a jar can be sized up without inflating any of it, and then
+ * inflates just the entries that are asked for.
+ *
+ * Nothing in a jar is trusted: offsets are checked against the file, entries are never inflated
+ * past the size they claim, and their CRCs are checked.  Zip64 and encrypted entries aren't
+ * supported; no contestant needs them.
+ *
+ * The mapping is released by {@link #close()} where the JVM allows it (otherwise when it's
+ * garbage collected, which on Windows keeps the file from being deleted until then).
+ */
+class JarInspector {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	/** below this, anything compresses as well as it likes */
+	private static final long RATIO_FLOOR = 64 * 1024;
+
+	static class Entry {
+		final String name;
+		final int method;
+		final long compressedSize;
+		final long size;
+		final long crc;
+		private final long localHeaderOffset;
+
+		Entry(String name, int method, long compressedSize, long size, long crc, long localHeaderOffset) {
+			super();
+			this.name = name;
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.crc = crc;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		boolean isDirectory(){
+			return name.endsWith("/");
+		}
+
+		double ratio(){
+			return (double) size / Math.max(1, compressedSize);
+		}
+	}
+
+	private final File jar;
+	private final ByteBuffer map;
+	private final List<Entry> entries;
+	private final long totalSize;
+
+	private JarInspector(File jar, ByteBuffer map, List<Entry> entries, long totalSize) {
+		super();
+		this.jar = jar;
+		this.map = map;
+		this.entries = entries;
+		this.totalSize = totalSize;
+	}
+
+	/**
+	 * Maps <code>jar</code> and reads its central directory.
+	 *
+	 * @param maxJarBytes jars bigger than this aren't mapped at all
+	 * @param maxEntries jars listing more entries than this aren't read any further
+	 */
+	public static JarInspector open(File jar, long maxJarBytes, int maxEntries) throws IOException {
+		long length = jar.length();
+		if(length > maxJarBytes){
+			throw new IOException(jar.getName() + " is " + length + " bytes, more than " + maxJarBytes);
+		}
+		if(length < END_OF_CENTRAL_DIRECTORY_SIZE){
+			throw new IOException(jar.getName() + " is not a jar");
+		}
+
+		RandomAccessFile file = new RandomAccessFile(jar, "r");
+		MappedByteBuffer map;
+		try{
+			map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}finally{
+			// the mapping outlives the channel
+			file.close();
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		try{
+			return read(jar, map, maxEntries);
+		}catch(IndexOutOfBoundsException e){
+			unmap(map);
+			throw new IOException(jar.getName() + " is truncated or corrupt", e);
+		}catch(IllegalArgumentException e){
+			unmap(map);
+			throw new IOException(jar.getName() + " is truncated or corrupt", e);
+		}catch(BufferUnderflowException e){
+			unmap(map);
+			throw new IOException(jar.getName() + " is truncated or corrupt", e);
+		}catch(IOException e){
+			unmap(map);
+			throw e;
+		}
+	}
+
+	private static JarInspector read(File jar, ByteBuffer map, int maxEntries) throws IOException {
+		int end = findEndOfCentralDirectory(map);
+		if(end<0){
+			throw new IOException(jar.getName() + " is not a jar");
+		}
+		int count = map.getShort(end + 10) & 0xFFFF;
+		long directorySize = map.getInt(end + 12) & 0xFFFFFFFFL;
+		long directoryOffset = map.getInt(end + 16) & 0xFFFFFFFFL;
+		if(count==0xFFFF || directoryOffset==0xFFFFFFFFL){
+			throw new IOException(jar.getName() + " is a zip64 archive");
+		}
+		if(count > maxEntries){
+			throw new IOException(jar.getName() + " has " + count + " entries, more than " + maxEntries);
+		}
+		if(directoryOffset + directorySize > end){
+			throw new IOException(jar.getName() + " has a central directory outside of the file");
+		}
+
+		List<Entry> entries = new ArrayList<Entry>(count);
+		long totalSize = 0;
+		int position = (int) directoryOffset;
+		for(int x=0;x<count;x++){
+			if(map.getInt(position)!=CENTRAL_HEADER){
+				throw new IOException(jar.getName() + " has a corrupt central directory");
+			}
+			int flags = map.getShort(position + 8) & 0xFFFF;
+			int method = map.getShort(position + 10) & 0xFFFF;
+			long crc = map.getInt(position + 16) & 0xFFFFFFFFL;
+			long compressedSize = map.getInt(position + 20) & 0xFFFFFFFFL;
+			long size = map.getInt(position + 24) & 0xFFFFFFFFL;
+			int nameLength = map.getShort(position + 28) & 0xFFFF;
+			int extraLength = map.getShort(position + 30) & 0xFFFF;
+			int commentLength = map.getShort(position + 32) & 0xFFFF;
+			long localHeaderOffset = map.getInt(position + 42) & 0xFFFFFFFFL;
+
+			byte[] name = new byte[nameLength];
+			((ByteBuffer) map.duplicate().position(position + 46)).get(name);
+			Entry entry = new Entry(new String(name, "UTF-8"), method, compressedSize, size, crc, localHeaderOffset);
+
+			if((flags & 1)!=0){
+				throw new IOException(entry.name + " in " + jar.getName() + " is encrypted");
+			}
+			if(compressedSize==0xFFFFFFFFL || size==0xFFFFFFFFL || localHeaderOffset==0xFFFFFFFFL){
+				throw new IOException(jar.getName() + " is a zip64 archive");
+			}
+			if(localHeaderOffset + compressedSize > directoryOffset){
+				throw new IOException(entry.name + " in " + jar.getName() + " lies outside of the file");
+			}
+
+			entries.add(entry);
+			totalSize += size;
+			position += 46 + nameLength + extraLength + commentLength;
+		}
+		return new JarInspector(jar, map, Collections.unmodifiableList(entries), totalSize);
+	}
+
+	private static int findEndOfCentralDirectory(ByteBuffer map){
+		// it's followed by a comment of up to 64 KB
+		int last = map.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+		for(int x=last;x>=0 && x>=last - 0xFFFF;x--){
+			if(map.getInt(x)==END_OF_CENTRAL_DIRECTORY && x + END_OF_CENTRAL_DIRECTORY_SIZE + (map.getShort(x + 20) & 0xFFFF)==map.limit()){
+				return x;
+			}
+		}
+		return -1;
+	}
+
+	public List<Entry> entries() {
+		return entries;
+	}
+
+	/**
+	 * @return what the entries claim to inflate to, in all
+	 */
+	public long totalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Sizes the jar up against limits, using only its central directory.
+	 *
+	 * @return why the jar breaks them, or null if it doesn't
+	 */
+	public String check(long maxTotalBytes, double maxRatio) {
+		if(totalSize > maxTotalBytes){
+			return "inflates to " + totalSize + " bytes, more than " + maxTotalBytes;
+		}
+		for(Entry next : entries){
+			if(next.method!=STORED && next.method!=DEFLATED){
+				return next.name + " uses unsupported compression method " + next.method;
+			}
+			if(next.size > RATIO_FLOOR && next.ratio() > maxRatio){
+				return next.name + " is compressed " + Math.round(next.ratio()) + " to 1, more than " + Math.round(maxRatio) + " to 1";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Inflates one entry, and none of the others.
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		try{
+			int offset = (int) entry.localHeaderOffset;
+			if(map.getInt(offset)!=LOCAL_HEADER){
+				throw new IOException(entry.name + " in " + jar.getName() + " has no local header");
+			}
+			int dataOffset = offset + 30 + (map.getShort(offset + 26) & 0xFFFF) + (map.getShort(offset + 28) & 0xFFFF);
+			byte[] compressed = new byte[(int) entry.compressedSize];
+			((ByteBuffer) map.duplicate().position(dataOffset)).get(compressed);
+
+			byte[] data;
+			if(entry.method==STORED){
+				if(entry.compressedSize!=entry.size){
+					throw new IOException(entry.name + " in " + jar.getName() + " is stored with the wrong size");
+				}
+				data = compressed;
+			}else if(entry.method==DEFLATED){
+				data = inflate(entry, compressed);
+			}else{
+				throw new IOException(entry.name + " in " + jar.getName() + " uses unsupported compression method " + entry.method);
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			if(crc.getValue()!=entry.crc){
+				throw new IOException(entry.name + " in " + jar.getName() + " fails its CRC check");
+			}
+			return data;
+		}catch(IndexOutOfBoundsException e){
+			throw new IOException(entry.name + " in " + jar.getName() + " lies outside of the file", e);
+		}catch(IllegalArgumentException e){
+			throw new IOException(entry.name + " in " + jar.getName() + " lies outside of the file", e);
+		}catch(BufferUnderflowException e){
+			throw new IOException(entry.name + " in " + jar.getName() + " lies outside of the file", e);
+		}
+	}
+
+	private byte[] inflate(Entry entry, byte[] compressed) throws IOException {
+		// one byte more than it claims, to catch entries that inflate to more
+		byte[] data = new byte[(int) entry.size + 1];
+		Inflater inflater = new Inflater(true);
+		try{
+			// raw deflate wants one byte of padding at the end
+			byte[] input = new byte[compressed.length + 1];
+			System.arraycopy(compressed, 0, input, 0, compressed.length);
+			inflater.setInput(input);
+			int n = 0;
+			while(!inflater.finished() && n < data.length){
+				int inflated = inflater.inflate(data, n, data.length - n);
+				if(inflated==0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				n += inflated;
+			}
+			if(n!=entry.size || !inflater.finished()){
+				throw new IOException(entry.name + " in " + jar.getName() + " doesn't inflate to the " + entry.size + " bytes it claims");
+			}
+			byte[] exact = new byte[n];
+			System.arraycopy(data, 0, exact, 0, n);
+			return exact;
+		}catch(DataFormatException e){
+			throw new IOException(entry.name + " in " + jar.getName() + " is corrupt", e);
+		}finally{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Releases the mapping; nothing may be read afterwards.
+	 */
+	public void close() {
+		unmap(map);
+	}
+
+	/**
+	 * Unmaps right away where the JVM lets us (through <code>sun.misc.Unsafe.invokeCleaner</code>
+	 * on Java 9+, the buffer's cleaner before that); otherwise it happens on garbage collection.
+	 */
+	private static void unmap(ByteBuffer map){
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), map);
+			} catch (NoSuchMethodException e) {
+				Method cleaner = map.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				Object c = cleaner.invoke(map);
+				if(c!=null){
+					c.getClass().getMethod("clean").invoke(c);
+				}
+			}
+		} catch (Exception e) {
+			Log.debug("Unable to unmap a jar right away: " + e);
+		}
+	}
+}
@@ -1,6 +1,12 @@
 package com.cj.robokata;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -8,15 +14,41 @@ import java.util.Map;
 
 import org.dom4j.Document;
 import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
 
 public class JenkinsTool {
 
 	private final String baseUrl;
+	private final ResponseCache cache;
 
 	public JenkinsTool(String baseUrl) {
+		this(baseUrl, ResponseCache.NONE);
+	}
+
+	public JenkinsTool(String baseUrl, ResponseCache cache) {
 		super();
 		this.baseUrl = baseUrl;
+		this.cache = cache;
+	}
+	
+	/**
+	 * The kinds of remote API calls, so a {@link ResponseCache} can treat them differently.
+	 */
+	public enum Endpoint {
+		JOBS, JOB, BUILD, PEOPLE, USER;
+	}
+	
+	/**
+	 * Receives parsed items one at a time, while the rest of the response is still being read.
+	 */
+	public interface Handler<T> {
+		void handle(T item);
+	}
+	
+	private static class Collector<T> implements Handler<T> {
+		final List<T> items = new ArrayList<T>();
+		public void handle(T item) {
+			items.add(item);
+		}
 	}
 
 	public class JobInfo {
@@ -78,6 +110,37 @@ public class JenkinsTool {
 			return new JobDetails(lastBuild, lastStableBuild, lastFailedBuild, knownBuilds);
 		}
 		
+		static JobDetails read(XmlCursor tag) {
+			Integer lastBuild = null, lastFailedBuild = null, lastStableBuild = null;
+			List<Integer> knownBuilds = new ArrayList<Integer>();
+			
+			while(tag.nextChild()){
+				String name = tag.name();
+				Integer n = buildNumber(tag);
+				if(name.equals("lastBuild")){
+					lastBuild = n;
+				}else if(name.equals("lastFailedBuild")){
+					lastFailedBuild = n;
+				}else if(name.equals("lastStableBuild")){
+					lastStableBuild = n;
+				}
+				if(n!=null) knownBuilds.add(n);
+			}
+			return new JobDetails(lastBuild, lastStableBuild, lastFailedBuild, knownBuilds);
+		}
+		
+		private static Integer buildNumber(XmlCursor e) {
+			String text = null;
+			while(e.nextChild()){
+				if(e.name().equals("number")){
+					text = e.text();
+				}else{
+					e.skip();
+				}
+			}
+			return text==null?null:Integer.parseInt(text);
+		}
+		
 		private static Integer buildNumber(String name, Element tag){
 			Element e = tag.element(name);
 			return buildNumber(e);
@@ -108,36 +171,90 @@ public class JenkinsTool {
 	}
 	
 	public List<JobInfo> getListOfJobs(){
+		Collector<JobInfo> jobs = new Collector<JobInfo>();
+		forEachJob(jobs);
+		return jobs.items;
+	}
+	
+	public void forEachJob(Handler<JobInfo> handler){
+		XmlCursor root = open(baseUrl + "/api/xml", Endpoint.JOBS);
 		try {
-			URL url = new URL(baseUrl + "/api/xml");
-			Document dom = new SAXReader().read(url);
-			List<JobInfo> jobs = new ArrayList<JobInfo>();
-			
-			for( Element job : (List<Element>)dom.getRootElement().elements("job")) {
-				JobInfo info = readJobInfoFromXmlNode(job);
-				jobs.add(info);
+			while(root.nextChild()){
+				if(root.name().equals("job")){
+					handler.handle(readJobInfo(root));
+				}else{
+					root.skip();
+				}
 			}
-			
-			return jobs;
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		} finally {
+			root.close();
 		}
 	}
 	
-	public List<URL> getListOfSuspects(JobInfo job, int buildNumber){
+	public static class JobAndLastBuild {
+		public final JobInfo job;
+		public final BuildInfo lastBuild;
+		
+		private JobAndLastBuild(JobInfo job, BuildInfo lastBuild) {
+			super();
+			this.job = job;
+			this.lastBuild = lastBuild;
+		}
+	}
+	
+	/**
+	 * Same information as {@link #getListOfJobs()} followed by {@link #infoForLastBuildOfJobNamed(String)}
+	 * for each job, but fetched in a single request using the remote API's <code>tree</code> filter.
+	 * Jobs that have never been built come back with a null lastBuild.
+	 */
+	public List<JobAndLastBuild> getJobsWithLastBuild(String namePrefix){
+		Collector<JobAndLastBuild> jobs = new Collector<JobAndLastBuild>();
+		forEachJobWithLastBuild(namePrefix, jobs);
+		return jobs.items;
+	}
+	
+	public void forEachJobWithLastBuild(String namePrefix, Handler<JobAndLastBuild> handler){
+		String tree = "jobs[name,color,lastBuild[number,culprits[fullName,absoluteUrl],artifacts[fileName,relativePath]]]";
+		XmlCursor root = open(baseUrl + "/api/xml?tree=" + urlEncode(tree), Endpoint.JOBS);
 		try {
-			URL url = new URL(baseUrl + "/job/" + job.name + "/" + buildNumber + "/api/xml");
-			Document dom = new SAXReader().read(url);
-			List<URL> suspects = new ArrayList<URL>();
-			
-			for( Element tag : (List<Element>)dom.getRootElement().elements("culprit")) {
-				suspects.add(new URL(tag.elementText("absoluteUrl")));
+			while(root.nextChild()){
+				if(root.name().equals("job")){
+					JobAndLastBuild next = readJobAndLastBuild(root);
+					if(next.job.name.startsWith(namePrefix)){
+						handler.handle(next);
+					}
+				}else{
+					root.skip();
+				}
 			}
-			
-			return suspects;
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		} finally {
+			root.close();
+		}
+	}
+	
+	private JobAndLastBuild readJobAndLastBuild(XmlCursor job){
+		String name = null, color = null;
+		BuildInfo lastBuild = null;
+		while(job.nextChild()){
+			if(job.name().equals("name")){
+				name = job.text();
+			}else if(job.name().equals("color")){
+				color = job.text();
+			}else if(job.name().equals("lastBuild")){
+				lastBuild = readBuildInfo(job);
+			}else{
+				job.skip();
+			}
+		}
+		return new JobAndLastBuild(jobInfo(name, color), lastBuild);
+	}
+	
+	public List<URL> getListOfSuspects(JobInfo job, int buildNumber){
+		List<URL> suspects = new ArrayList<URL>();
+		for(CulpritInfo culprit : getBuildInfo(baseUrl + "/job/" + job.name + "/" + buildNumber + "/api/xml").culprits){
+			suspects.add(url(culprit.url));
 		}
+		return suspects;
 	}
 	
 	public static class UserInfo {
@@ -152,32 +269,59 @@ public class JenkinsTool {
 	}
 	
 	public List<UserInfo> listUsers(){
+		Collector<UserInfo> users = new Collector<UserInfo>();
+		forEachUser(users);
+		return users.items;
+	}
+	
+	public void forEachUser(Handler<UserInfo> handler){
+		XmlCursor root = open(baseUrl + "/view/main/people/api/xml", Endpoint.PEOPLE);
 		try {
-			List<UserInfo> users = new ArrayList<JenkinsTool.UserInfo>();
-			URL url = new URL(baseUrl + "/view/main/people/api/xml");
-			Document dom = new SAXReader().read(url);
-			Element root = dom.getRootElement();
-			for(Element userTag : (List<Element>) root.elements("user")){
-				Element innerUserTag = userTag.element("user");
-				String fullName = innerUserTag.elementText("fullName");
-				String absoluteUrl = innerUserTag.elementText("absoluteUrl");
-				users.add(new UserInfo(fullName, absoluteUrl));
+			while(root.nextChild()){
+				if(root.name().equals("user")){
+					UserInfo user = readUserInfo(root);
+					if(user!=null){
+						handler.handle(user);
+					}
+				}else{
+					root.skip();
+				}
+			}
+		} finally {
+			root.close();
+		}
+	}
+	
+	private UserInfo readUserInfo(XmlCursor userTag){
+		UserInfo user = null;
+		while(userTag.nextChild()){
+			if(userTag.name().equals("user")){
+				String fullName = null, absoluteUrl = null;
+				while(userTag.nextChild()){
+					if(userTag.name().equals("fullName")){
+						fullName = userTag.text();
+					}else if(userTag.name().equals("absoluteUrl")){
+						absoluteUrl = userTag.text();
+					}else{
+						userTag.skip();
+					}
+				}
+				user = new UserInfo(fullName, absoluteUrl);
+			}else{
+				userTag.skip();
 			}
-			
-			return users;
-		} catch (Exception e) {
-			throw new RuntimeException(e);
 		}
+		return user;
 	}
+	
 	public UserDetails getUserDetails(URL ref){
+		Log.debug("Getting user details from " + ref);
+		XmlCursor root = open(ref.toString() + "/api/xml", Endpoint.USER);
 		try {
-			System.out.println("Getting user details from " + ref);
-			Document dom = new SAXReader().read(new URL(ref.toString() + "/api/xml"));
-			return UserDetails.read(dom);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+			return UserDetails.read(root);
+		} finally {
+			root.close();
 		}
-		
 	}
 	
 	public static class UserDetails {
@@ -207,19 +351,53 @@ public class JenkinsTool {
 			
 			return new UserDetails(id, fullName, properties);
 		}
+		
+		static UserDetails read(XmlCursor tag){
+			String id = null, fullName = null;
+			final Map<String, String> properties = new HashMap<String, String>();
+			
+			while(tag.nextChild()){
+				if(tag.name().equals("id")){
+					id = tag.text();
+				}else if(tag.name().equals("fullName")){
+					fullName = tag.text();
+				}else if(tag.name().equals("property")){
+					while(tag.nextChild()){
+						properties.put(tag.name(), tag.text());
+					}
+				}else{
+					tag.skip();
+				}
+			}
+			
+			return new UserDetails(id, fullName, properties);
+		}
 	}
 	
-	private JobInfo readJobInfoFromXmlNode(Element job){
-		return new JobInfo(job.elementText("name"), JobStatus.valueOf(job.elementText("color").toUpperCase()));
+	private JobInfo readJobInfo(XmlCursor job){
+		String name = null, color = null;
+		while(job.nextChild()){
+			if(job.name().equals("name")){
+				name = job.text();
+			}else if(job.name().equals("color")){
+				color = job.text();
+			}else{
+				job.skip();
+			}
+		}
+		return jobInfo(name, color);
+	}
+	
+	private JobInfo jobInfo(String name, String color){
+		return new JobInfo(name, JobStatus.valueOf(color.toUpperCase()));
 	}
 	
 	public JobInfo getInfoForJobNamed(String jobName){
+		XmlCursor root = open(baseUrl + "/job/" + jobName + "/api/xml", Endpoint.JOB);
 		try {
-			URL url = new URL(baseUrl + "/job/" + jobName + "/api/xml");
-			Document dom = new SAXReader().read(url);
-			return readJobInfoFromXmlNode(dom.getRootElement());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+			return readJobInfo(root);
+		} finally {
+			root.close();
 		}
 	}
 
@@ -230,32 +408,65 @@ public class JenkinsTool {
 	
 
 	public BuildInfo infoForLastBuildOfJobNamed(String jobName) {
+		return getBuildInfo(baseUrl + "/job/" + jobName + "/lastBuild/api/xml");
+	}
+	
+	private BuildInfo getBuildInfo(String url) {
+		XmlCursor root = open(url, Endpoint.BUILD);
 		try {
-			URL url = new URL(baseUrl + "/job/" + jobName + "/lastBuild/api/xml");
-			Document dom = new SAXReader().read(url);
-			
-			return readBuildInfoFromXmlNode(dom.getRootElement());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+			return readBuildInfo(root);
+		} finally {
+			root.close();
 		}
 	}
 	
-	private BuildInfo readBuildInfoFromXmlNode(Element build) {
+	private BuildInfo readBuildInfo(XmlCursor build) {
+		Integer number = null;
 		List<CulpritInfo> culprits = new ArrayList<JenkinsTool.CulpritInfo>();
-		for( Element job : (List<Element>)build.elements("culprit")) {
-			culprits.add(new CulpritInfo(job.elementText("fullName"), job.elementText("absoluteUrl")));
-		}
-		
 		List<ArtifactInfo> artifacts = new ArrayList<ArtifactInfo>();
 		
-		for( Element artifact : (List<Element>)build.elements("artifact")) {
-			artifacts.add(new ArtifactInfo(
-							artifact.elementText("fileName"), 
-							artifact.elementText("relativePath")
-						));
+		while(build.nextChild()){
+			String name = build.name();
+			if(name.equals("number")){
+				number = Integer.valueOf(build.text());
+			}else if(name.equals("culprit")){
+				culprits.add(readCulpritInfo(build));
+			}else if(name.equals("artifact")){
+				artifacts.add(readArtifactInfo(build));
+			}else{
+				build.skip();
+			}
 		}
 		
-		return new BuildInfo(culprits, artifacts);
+		return new BuildInfo(number, culprits, artifacts);
+	}
+	
+	private CulpritInfo readCulpritInfo(XmlCursor culprit){
+		String fullName = null, absoluteUrl = null;
+		while(culprit.nextChild()){
+			if(culprit.name().equals("fullName")){
+				fullName = culprit.text();
+			}else if(culprit.name().equals("absoluteUrl")){
+				absoluteUrl = culprit.text();
+			}else{
+				culprit.skip();
+			}
+		}
+		return new CulpritInfo(fullName, absoluteUrl);
+	}
+	
+	private ArtifactInfo readArtifactInfo(XmlCursor artifact){
+		String fileName = null, relativePath = null;
+		while(artifact.nextChild()){
+			if(artifact.name().equals("fileName")){
+				fileName = artifact.text();
+			}else if(artifact.name().equals("relativePath")){
+				relativePath = artifact.text();
+			}else{
+				artifact.skip();
+			}
+		}
+		return new ArtifactInfo(fileName, relativePath);
 	}
 
 	public static class CulpritInfo {
@@ -282,23 +493,74 @@ public class JenkinsTool {
 	}
 	
 	public static class BuildInfo {
+		public final Integer number;
 		public final List<CulpritInfo> culprits;
 		public final List<ArtifactInfo> artifacts;
 		
-		private BuildInfo(List<CulpritInfo> culprits, final List<ArtifactInfo> artifacts) {
+		private BuildInfo(Integer number, List<CulpritInfo> culprits, final List<ArtifactInfo> artifacts) {
 			super();
+			this.number = number;
 			this.culprits = culprits;
 			this.artifacts = artifacts;
 		}
 	}
 
 	public JobDetails getDetailsForJobNamed(String jobName) {
+		XmlCursor root = open(baseUrl + "/job/" + jobName + "/api/xml", Endpoint.JOB);
 		try {
-			URL url = new URL(baseUrl + "/job/" + jobName + "/api/xml");
-			Document dom = new SAXReader().read(url);
-			
-			return JobDetails.read(dom);
-		} catch (Exception e) {
+			return JobDetails.read(root);
+		} finally {
+			root.close();
+		}
+	}
+	
+	private XmlCursor open(final String url, final Endpoint endpoint) {
+		try {
+			return new XmlCursor(cache.open(url, endpoint, new ResponseCache.Source() {
+				public InputStream open() throws IOException {
+					final Metrics.Timer timer = Metrics.start("jenkins_request", "endpoint", endpoint.name().toLowerCase());
+					InputStream in;
+					try{
+						in = url(url).openStream();
+					}catch(IOException e){
+						timer.stop();
+						throw e;
+					}
+					// the response is read after this returns, so it's timed until it's closed
+					return new FilterInputStream(in) {
+						private boolean closed = false;
+
+						@Override
+						public void close() throws IOException {
+							try{
+								super.close();
+							}finally{
+								if(!closed){
+									closed = true;
+									timer.stop();
+								}
+							}
+						}
+					};
+				}
+			}));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static URL url(String url) {
+		try {
+			return new URL(url);
+		} catch (MalformedURLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static String urlEncode(String text) {
+		try {
+			return URLEncoder.encode(text, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}
 	}
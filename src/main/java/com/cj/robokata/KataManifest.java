@@ -0,0 +1,210 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.cj.robokata.Main.JarReference;
+
+/**
+ * What a kata workspace already holds: for each contestant jar, which version of it was
+ * processed, where it was saved, its SHA-256 and the robots found in it.  A resumed run
+ * (<code>-Drobokata.resume=kata-dir</code>) reuses every contestant whose version and file still
+ * match, and only downloads, unzips and scans the rest.
+ */
+class KataManifest {
+	static final String FILE_NAME = "manifest.properties";
+
+	static class Contestant {
+		final String version;
+		final String sha256;
+		final List<String> robots;
+		final File file;
+
+		Contestant(String version, String sha256, List<String> robots, File file) {
+			super();
+			this.version = version;
+			this.sha256 = sha256;
+			this.robots = robots;
+			this.file = file;
+		}
+
+		static Contestant parse(String text){
+			String[] parts = text.split(" ", 4);
+			List<String> robots = parts[2].equals("-")?new ArrayList<String>():Arrays.asList(parts[2].split(","));
+			return new Contestant(parts[0], parts[1], robots, new File(parts[3]));
+		}
+
+		String format(){
+			StringBuilder robotList = new StringBuilder();
+			for(String next : robots){
+				robotList.append(robotList.length()==0?"":",").append(next);
+			}
+			return version + " " + sha256 + " " + (robots.isEmpty()?"-":robotList.toString()) + " " + file.getAbsolutePath();
+		}
+	}
+
+	private final File file;
+	private final Map<String, Contestant> contestants = new HashMap<String, Contestant>();
+
+	private KataManifest(File file) {
+		super();
+		this.file = file;
+	}
+
+	static KataManifest load(File kataDir) throws IOException {
+		KataManifest manifest = new KataManifest(new File(kataDir, FILE_NAME));
+		if(manifest.file.isFile()){
+			Properties props = new Properties();
+			InputStream in = new FileInputStream(manifest.file);
+			try{
+				props.load(in);
+			}finally{
+				in.close();
+			}
+			for(String key : props.stringPropertyNames()){
+				manifest.contestants.put(key, Contestant.parse(props.getProperty(key)));
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * @return what was recorded for <code>jar</code>, if it's the same version and its file is
+	 *         still there, unmodified; otherwise null
+	 */
+	Contestant unchanged(JarReference jar) throws IOException {
+		Contestant known = contestants.get(id(jar));
+		if(known==null || !known.version.equals(jar.version()) || !known.file.isFile()){
+			return null;
+		}
+		return sha256(known.file).equals(known.sha256)?known:null;
+	}
+
+	boolean isEmpty(){
+		return contestants.isEmpty();
+	}
+
+	void clear(){
+		contestants.clear();
+	}
+
+	Contestant get(JarReference jar){
+		return contestants.get(id(jar));
+	}
+
+	void put(JarReference jar, File file, List<String> robots) throws IOException {
+		put(jar, file, robots, sha256(file));
+	}
+
+	/**
+	 * @param sha256 of <code>file</code>, when it's already known
+	 */
+	void put(JarReference jar, File file, List<String> robots, String sha256) {
+		contestants.put(id(jar), new Contestant(jar.version(), sha256, robots, file));
+	}
+
+	void remove(JarReference jar){
+		contestants.remove(id(jar));
+	}
+
+	/**
+	 * Forgets (and returns) every contestant that isn't in <code>current</code>.
+	 */
+	List<Contestant> retainOnly(List<JarReference> current){
+		Set<String> ids = new HashSet<String>();
+		for(JarReference next : current){
+			ids.add(id(next));
+		}
+		List<Contestant> gone = new ArrayList<Contestant>();
+		for(String next : new ArrayList<String>(contestants.keySet())){
+			if(!ids.contains(next)){
+				gone.add(contestants.remove(next));
+			}
+		}
+		return gone;
+	}
+
+	/**
+	 * @return every file named in the jars of the contestants still here; these are shared with
+	 *         any contestant that's being taken out, and have to stay
+	 */
+	Set<String> paths() throws IOException {
+		Set<String> paths = new HashSet<String>();
+		for(Contestant next : contestants.values()){
+			if(!next.file.isFile()){
+				continue;
+			}
+			ZipFile zip = new ZipFile(next.file);
+			try{
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while(entries.hasMoreElements()){
+					ZipEntry entry = entries.nextElement();
+					if(!entry.isDirectory()){
+						paths.add(entry.getName());
+					}
+				}
+			}finally{
+				zip.close();
+			}
+		}
+		return paths;
+	}
+
+	void save() throws IOException {
+		Properties props = new Properties();
+		for(Map.Entry<String, Contestant> next : contestants.entrySet()){
+			props.setProperty(next.getKey(), next.getValue().format());
+		}
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try{
+			props.store(out, "robokata contestants: id = version sha256 robots file");
+		}finally{
+			out.close();
+		}
+		if(!temp.renameTo(file)){
+			FileUtils.copyFile(temp, file);
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	private static String id(JarReference jar){
+		return jar.id();
+	}
+
+	static String sha256(File file) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			InputStream in = new DigestInputStream(new FileInputStream(file), digest);
+			try{
+				IOUtils.copy(in, new NullOutputStream());
+			}finally{
+				in.close();
+			}
+			return RobocodeDistribution.hex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.cj.robokata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.joda.time.YearMonthDay;
+
+import com.cj.robokata.JenkinsTool.JobAndLastBuild;
+import com.cj.robokata.JenkinsTool.JobStatus;
+
+/**
+ * Keeps an eye on today's kata jobs and runs the kata again whenever one of them has a new
+ * green build.
+ *
+ * Each poll is a single request for all of today's jobs and their last builds.  Polls start
+ * <code>minMillis</code> apart and back off, doubling up to <code>maxMillis</code>, for as long
+ * as nothing changes (or Jenkins can't be reached); a new green build brings them back to
+ * <code>minMillis</code>.  Builds that turn up while a kata is running are folded into one
+ * follow-up run rather than one run each.
+ */
+class KataWatcher {
+	interface Kata {
+		void run();
+	}
+
+	private final JenkinsTool jenkins;
+	private final Kata kata;
+	private final long minMillis;
+	private final long maxMillis;
+	private final Clock clock;
+	private final Map<String, Integer> lastGreenBuilds = new HashMap<String, Integer>();
+	private final ExecutorService runner = Executors.newSingleThreadExecutor(new DaemonThreadFactory("kata"));
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private final Random jitter = new Random();
+
+	public KataWatcher(JenkinsTool jenkins, Kata kata, long minMillis, long maxMillis) {
+		this(jenkins, kata, minMillis, maxMillis, Clock.SYSTEM);
+	}
+
+	KataWatcher(JenkinsTool jenkins, Kata kata, long minMillis, long maxMillis, Clock clock) {
+		super();
+		this.jenkins = jenkins;
+		this.kata = kata;
+		this.minMillis = minMillis;
+		this.maxMillis = Math.max(minMillis, maxMillis);
+		this.clock = clock;
+	}
+
+	/**
+	 * Polls until {@link #stop()}.
+	 */
+	public void run() {
+		Log.info("Watching Jenkins for new green builds, polling every " + minMillis + " to " + maxMillis + " ms");
+		long interval = minMillis;
+		try{
+			do{
+				List<String> changed;
+				try{
+					changed = poll(Main.namePrefix(new YearMonthDay()));
+				}catch(RuntimeException e){
+					Log.warn("Unable to poll Jenkins: " + e.getMessage());
+					changed = new ArrayList<String>();
+				}
+
+				if(changed.isEmpty()){
+					interval = Math.min(maxMillis, interval * 2);
+				}else{
+					Log.info("New green builds: " + changed);
+					schedule();
+					interval = minMillis;
+				}
+				Log.debug("Next poll in " + interval + " ms");
+			}while(!clock.await(stopped, interval + jitter.nextInt((int) Math.max(1, interval / 10))));
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}finally{
+			runner.shutdown();
+		}
+	}
+
+	public void stop() {
+		stopped.countDown();
+	}
+
+	/**
+	 * @return the jobs (as <code>name #build</code>) whose last build is green and newer than the
+	 *         last green build seen for them
+	 */
+	List<String> poll(String namePrefix) {
+		List<String> changed = new ArrayList<String>();
+		for(JobAndLastBuild next : jenkins.getJobsWithLastBuild(namePrefix)){
+			if(next.job.status!=JobStatus.BLUE || next.lastBuild==null || next.lastBuild.number==null){
+				continue;
+			}
+			Integer seen = lastGreenBuilds.get(next.job.name);
+			if(seen==null || next.lastBuild.number > seen){
+				lastGreenBuilds.put(next.job.name, next.lastBuild.number);
+				changed.add(next.job.name + " #" + next.lastBuild.number);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Runs the kata soon, unless a run is already waiting to start.
+	 */
+	void schedule() {
+		if(scheduled.compareAndSet(false, true)){
+			runner.submit(new Runnable() {
+				public void run() {
+					scheduled.set(false);
+					try{
+						kata.run();
+					}catch(RuntimeException e){
+						Log.error("The kata failed", e);
+					}
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.cj.robokata;
+
+/**
+ * Receives a command's output one decoded line at a time, as it's printed.
+ */
+public interface LineSink {
+
+	/**
+	 * @param line without its line terminator
+	 */
+	void line(String line);
+
+}
@@ -0,0 +1,116 @@
+package com.cj.robokata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * An output stream that decodes what's written to it and hands it to a {@link LineSink} line by
+ * line.  Memory use is fixed: a few KB of undecoded bytes and decoded chars, plus the line being
+ * built, which is handed over in pieces once it reaches <code>maxLineLength</code>.  The last
+ * line, if it isn't terminated, is handed over on {@link #close()}.
+ */
+public class LineSplitter extends OutputStream {
+	public static final int DEFAULT_MAX_LINE_LENGTH = 16 * 1024;
+
+	private final LineSink sink;
+	private final int maxLineLength;
+	private final CharsetDecoder decoder;
+	private final ByteBuffer bytes = ByteBuffer.allocate(8 * 1024);
+	private final CharBuffer chars = CharBuffer.allocate(8 * 1024);
+	private final StringBuilder line = new StringBuilder();
+	private boolean closed = false;
+
+	/**
+	 * @param charset what the bytes written are in
+	 */
+	public LineSplitter(LineSink sink, Charset charset) {
+		this(sink, charset, DEFAULT_MAX_LINE_LENGTH);
+	}
+
+	public LineSplitter(LineSink sink, Charset charset, int maxLineLength) {
+		super();
+		this.sink = sink;
+		this.maxLineLength = maxLineLength;
+		this.decoder = charset.newDecoder()
+							.onMalformedInput(CodingErrorAction.REPLACE)
+							.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(closed){
+			throw new IOException("Closed");
+		}
+		while(len>0){
+			int n = Math.min(len, bytes.remaining());
+			bytes.put(b, off, n);
+			off += n;
+			len -= n;
+			decode(false);
+		}
+	}
+
+	@Override
+	public void close() {
+		if(closed){
+			return;
+		}
+		closed = true;
+		decode(true);
+		while(decoder.flush(chars)==CoderResult.OVERFLOW){
+			split();
+		}
+		split();
+		if(line.length()>0){
+			emit();
+		}
+	}
+
+	private void decode(boolean endOfInput){
+		bytes.flip();
+		while(decoder.decode(bytes, chars, endOfInput)==CoderResult.OVERFLOW){
+			split();
+		}
+		split();
+		// anything left is the start of a character that hasn't fully arrived yet
+		bytes.compact();
+	}
+
+	private void split(){
+		chars.flip();
+		while(chars.hasRemaining()){
+			char c = chars.get();
+			if(c=='\n'){
+				emit();
+			}else{
+				// a full line is handed over when more of it arrives, so one that ends right at
+				// the limit (perhaps with a '\r' still to come) isn't followed by an empty one
+				if(line.length()>maxLineLength || (line.length()==maxLineLength && c!='\r')){
+					emit();
+				}
+				line.append(c);
+			}
+		}
+		chars.clear();
+	}
+
+	private void emit(){
+		int end = line.length();
+		if(end>0 && line.charAt(end - 1)=='\r'){
+			end--;
+		}
+		sink.line(line.substring(0, end));
+		line.setLength(0);
+	}
+}
@@ -0,0 +1,152 @@
+package com.cj.robokata;
+
+import java.io.BufferedOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The runner's console output.
+ *
+ * Callers only put a line into a fixed-size ring buffer (a CAS to claim a slot and a write to
+ * publish it, no locks); a single daemon thread prints the lines to System.out in the order
+ * they were claimed, so a slow terminal (an SSH session, say) no longer holds up setup.
+ * When the buffer is full, debug lines are dropped (and the drop reported) while everything
+ * else waits for room.
+ *
+ * The level comes from <code>-Drobokata.log.level</code> (debug, info, warn, error; default info).
+ * Anything else writing to the console, such as a child process, should call {@link #flush()}
+ * first so the two don't interleave.
+ */
+class Log {
+	enum Level {DEBUG, INFO, WARN, ERROR}
+
+	private static final int CAPACITY = 8192;
+	private static final int MASK = CAPACITY - 1;
+
+	private static final Level LEVEL = level(System.getProperty("robokata.log.level", "info"));
+
+	private static final AtomicReferenceArray<String> SLOTS = new AtomicReferenceArray<String>(CAPACITY);
+	/** next sequence to claim */
+	private static final AtomicLong HEAD = new AtomicLong();
+	/** next sequence to print; only the writer moves it */
+	private static final AtomicLong TAIL = new AtomicLong();
+	/** everything before this has been printed and flushed */
+	private static final AtomicLong FLUSHED = new AtomicLong();
+	private static final AtomicLong DROPPED = new AtomicLong();
+
+	private static final Thread WRITER = new Thread(new Runnable() {
+		public void run() {
+			drain(new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false));
+		}
+	}, "log-writer");
+
+	static {
+		WRITER.setDaemon(true);
+		WRITER.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, "log-flush"));
+	}
+
+	private static Level level(String name){
+		try{
+			return Level.valueOf(name.trim().toUpperCase());
+		}catch(IllegalArgumentException e){
+			System.out.println("Unknown log level '" + name + "', using info");
+			return Level.INFO;
+		}
+	}
+
+	static boolean isDebugEnabled(){
+		return enabled(Level.DEBUG);
+	}
+
+	static boolean enabled(Level level){
+		return level.compareTo(LEVEL) >= 0;
+	}
+
+	static void debug(String message){
+		log(Level.DEBUG, message);
+	}
+
+	static void info(String message){
+		log(Level.INFO, message);
+	}
+
+	static void warn(String message){
+		log(Level.WARN, message);
+	}
+
+	static void error(String message, Throwable e){
+		StringWriter text = new StringWriter();
+		PrintWriter out = new PrintWriter(text);
+		out.println(message);
+		e.printStackTrace(out);
+		out.flush();
+		String trace = text.toString();
+		log(Level.ERROR, trace.endsWith("\n")?trace.substring(0, trace.length() - 1):trace);
+	}
+
+	static void log(Level level, String message){
+		if(!enabled(level)){
+			return;
+		}
+		long sequence;
+		for(;;){
+			sequence = HEAD.get();
+			if(sequence - TAIL.get() >= CAPACITY){
+				if(level==Level.DEBUG){
+					DROPPED.incrementAndGet();
+					return;
+				}
+				LockSupport.unpark(WRITER);
+				Thread.yield();
+			}else if(HEAD.compareAndSet(sequence, sequence + 1)){
+				break;
+			}
+		}
+		SLOTS.set((int) (sequence & MASK), message);
+	}
+
+	/**
+	 * Waits until everything logged so far is on the console.
+	 */
+	static void flush(){
+		long target = HEAD.get();
+		while(FLUSHED.get() < target && WRITER.isAlive()){
+			LockSupport.unpark(WRITER);
+			Thread.yield();
+		}
+	}
+
+	private static void drain(PrintStream out){
+		long next = TAIL.get();
+		for(;;){
+			int slot = (int) (next & MASK);
+			String message = SLOTS.get(slot);
+			if(message!=null){
+				SLOTS.set(slot, null);
+				TAIL.lazySet(++next);
+				out.print(message);
+				out.print('\n');
+			}else if(next < HEAD.get()){
+				// claimed but not yet published
+				Thread.yield();
+			}else{
+				long dropped = DROPPED.getAndSet(0);
+				if(dropped>0){
+					out.println("[LOG] " + dropped + " debug messages dropped, the console couldn't keep up");
+				}
+				out.flush();
+				FLUSHED.set(next);
+				LockSupport.parkNanos(1000000);
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.cj.robokata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+import com.cj.robokata.JenkinsTool.Endpoint;
+
+/**
+ * Remembers response bodies for a per-endpoint time to live, holding at most
+ * <code>maxEntries</code> of them and dropping the least recently used first.
+ *
+ * Concurrent requests for the same url while it's being fetched wait for that one
+ * fetch instead of starting their own.  Endpoints without a TTL (or with 0) are never cached.
+ */
+public class LruResponseCache implements ResponseCache {
+
+	private static class Cached {
+		final byte[] body;
+		final long expires;
+
+		Cached(byte[] body, long expires) {
+			super();
+			this.body = body;
+			this.expires = expires;
+		}
+	}
+
+	private final Map<Endpoint, Long> ttlMillis;
+	private final Clock clock;
+	private final Map<String, Cached> entries;
+	private final ConcurrentMap<String, FutureTask<byte[]>> inFlight = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	public LruResponseCache(int maxEntries, Map<Endpoint, Long> ttlMillis) {
+		this(maxEntries, ttlMillis, Clock.SYSTEM);
+	}
+
+	LruResponseCache(final int maxEntries, Map<Endpoint, Long> ttlMillis, Clock clock) {
+		super();
+		this.ttlMillis = new EnumMap<Endpoint, Long>(ttlMillis);
+		this.clock = clock;
+		this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * The job list and job/build state change with every push; people hardly ever do.
+	 */
+	public static Map<Endpoint, Long> defaultTtls(){
+		Map<Endpoint, Long> ttls = new EnumMap<Endpoint, Long>(Endpoint.class);
+		ttls.put(Endpoint.JOBS, 5 * 1000L);
+		ttls.put(Endpoint.JOB, 10 * 1000L);
+		ttls.put(Endpoint.BUILD, 60 * 1000L);
+		ttls.put(Endpoint.PEOPLE, 10 * 60 * 1000L);
+		ttls.put(Endpoint.USER, 10 * 60 * 1000L);
+		return ttls;
+	}
+
+	public InputStream open(String url, Endpoint endpoint, final Source source) throws IOException {
+		Long ttl = ttlMillis.get(endpoint);
+		if(ttl==null || ttl<=0){
+			misses.incrementAndGet();
+			return source.open();
+		}
+
+		Cached cached = lookup(url);
+		if(cached!=null){
+			hits.incrementAndGet();
+			return new ByteArrayInputStream(cached.body);
+		}
+
+		FutureTask<byte[]> fetch = new FutureTask<byte[]>(new Callable<byte[]>() {
+			public byte[] call() throws IOException {
+				InputStream in = source.open();
+				try{
+					return IOUtils.toByteArray(in);
+				}finally{
+					in.close();
+				}
+			}
+		});
+		FutureTask<byte[]> running = inFlight.putIfAbsent(url, fetch);
+		if(running==null){
+			try{
+				// another fetch may have finished (and left) since the lookup above
+				cached = lookup(url);
+				if(cached!=null){
+					hits.incrementAndGet();
+					return new ByteArrayInputStream(cached.body);
+				}
+				misses.incrementAndGet();
+				fetch.run();
+				byte[] body = waitFor(fetch);
+				store(url, new Cached(body, clock.millis() + ttl));
+				return new ByteArrayInputStream(body);
+			}finally{
+				inFlight.remove(url, fetch);
+			}
+		}else{
+			coalesced.incrementAndGet();
+			return new ByteArrayInputStream(waitFor(running));
+		}
+	}
+
+	public long hits(){
+		return hits.get();
+	}
+
+	public long misses(){
+		return misses.get();
+	}
+
+	/**
+	 * Requests that were answered by someone else's fetch of the same url.
+	 */
+	public long coalesced(){
+		return coalesced.get();
+	}
+
+	public synchronized int size(){
+		return entries.size();
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+	}
+
+	private synchronized Cached lookup(String url){
+		Cached cached = entries.get(url);
+		if(cached!=null && cached.expires < clock.millis()){
+			entries.remove(url);
+			return null;
+		}
+		return cached;
+	}
+
+	private synchronized void store(String url, Cached entry){
+		entries.put(url, entry);
+	}
+
+	private static byte[] waitFor(FutureTask<byte[]> fetch) throws IOException {
+		try {
+			return fetch.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "hits: " + hits() + ", misses: " + misses() + ", coalesced: " + coalesced() + ", size: " + size();
+	}
+}
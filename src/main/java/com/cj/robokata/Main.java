@@ -1,43 +1,54 @@
 package com.cj.robokata;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.joda.time.TimeOfDay;
 import org.joda.time.YearMonthDay;
 import org.joda.time.format.DateTimeFormat;
 
 import com.cj.robokata.JenkinsTool.ArtifactInfo;
 import com.cj.robokata.JenkinsTool.BuildInfo;
+import com.cj.robokata.JenkinsTool.JobAndLastBuild;
 import com.cj.robokata.JenkinsTool.JobInfo;
 import com.cj.robokata.JenkinsTool.JobStatus;
 
-import robocode.Robot;
-
 public class Main {
 	static interface JarReference {
 		URL url();
 		String name();
+		/**
+		 * @return where this jar is kept in the {@link ArtifactStore}, or null if it shouldn't be stored
+		 */
+		String storeKey();
+		/**
+		 * @return the same for every build of this contestant's jar
+		 */
+		String id();
+		/**
+		 * @return changes whenever the jar does
+		 */
+		String version();
 	}
 	
 	static class LocalJar implements JarReference {
@@ -53,6 +64,18 @@ public class Main {
 			return path.getName();
 		}
 		@Override
+		public String storeKey() {
+			return null;
+		}
+		@Override
+		public String id() {
+			return path.getAbsolutePath();
+		}
+		@Override
+		public String version() {
+			return path.lastModified() + "-" + path.length();
+		}
+		@Override
 		public URL url() {
 			try {
 				return path.toURL();
@@ -64,11 +87,15 @@ public class Main {
 	
 	static class JenkinsJar implements JarReference {
 		private final URL url;
+		private final String jobName;
+		private final Integer buildNumber;
 		private final ArtifactInfo info;
-		public JenkinsJar(String url, ArtifactInfo info) {
+		public JenkinsJar(String url, String jobName, Integer buildNumber, ArtifactInfo info) {
 			super();
 			try {
 				this.url = new URL(url);
+				this.jobName = jobName;
+				this.buildNumber = buildNumber;
 				this.info = info;
 			} catch (MalformedURLException e) {
 				throw new RuntimeException(e);
@@ -81,51 +108,163 @@ public class Main {
 		public String name() {
 			return info.fileName;
 		}
+		@Override
+		public String storeKey() {
+			return jobName + "/" + buildNumber + "/" + info.relativePath;
+		}
+		@Override
+		public String id() {
+			return jobName + "/" + info.relativePath;
+		}
+		@Override
+		public String version() {
+			return String.valueOf(buildNumber);
+		}
 	}
 	
 	static class RobotEntry {
 		final JarReference contestant;
 		final String className;
+		/** of the contestant's jar, or null if unknown */
+		final String sha256;
 		
 		public RobotEntry(JarReference contestant, String className) {
+			this(contestant, className, null);
+		}
+		
+		public RobotEntry(JarReference contestant, String className, String sha256) {
 			super();
 			this.contestant = contestant;
 			this.className = className;
+			this.sha256 = sha256;
 		}
 	}
 	
-	public static void main(String[] args) throws Exception {
+	/**
+	 * The contestants, one per distinct jar: the same bytes published by several jobs (or
+	 * given locally too) only take part once.  A robot class can only be entered by one jar,
+	 * since every jar's classes are installed side by side in the same robots directory.
+	 */
+	static class Entrants {
+		private final Map<String, RobotEntry> bySha256 = new LinkedHashMap<String, RobotEntry>();
+		private final Map<String, JarReference> robotOwners = new HashMap<String, JarReference>();
+		
+		/**
+		 * Reports why not, if the jar can't take part.
+		 */
+		boolean canEnter(JarReference jar, String sha256, List<String> robots) {
+			RobotEntry same = bySha256.get(sha256);
+			if(same!=null){
+				Log.warn("Ignoring jar '" + jar.url() + "' because it is identical to '" + same.contestant.url() + "', which is already a contestant");
+				Metrics.count("duplicates", 1, "kind", "jar");
+				return false;
+			}
+			for(String robotClass : robots){
+				JarReference owner = robotOwners.get(robotClass);
+				if(owner!=null){
+					Log.warn("Ignoring jar '" + jar.url() + "' because its robot " + robotClass + " collides with the one in '" + owner.url() + "'");
+					Metrics.count("duplicates", 1, "kind", "robot");
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Claims every one of the jar's robots for it, so no later jar can enter them, but enters
+		 * only the first as the jar's contestant, warning about the rest.
+		 */
+		void enter(JarReference jar, String sha256, List<String> robots) {
+			for(String robotClass : robots){
+				robotOwners.put(robotClass, jar);
+				RobotEntry entry = bySha256.get(sha256);
+				if(entry==null){
+					bySha256.put(sha256, new RobotEntry(jar, robotClass, sha256));
+				}else{
+					Log.warn("Ignoring " + robotClass + " because there is already a contestant for " + jar.url() + " (" + entry.className + ") QUIT CHEATING!");
+				}
+			}
+		}
+		
+		List<RobotEntry> all() {
+			return new ArrayList<RobotEntry>(bySha256.values());
+		}
+	}
+	
+	public static void main(final String[] args) throws Exception {
 		if(args.length!=1){
-			System.out.println("Usage: robokata-runner http://your-jenkins-host");
+			Log.info("Usage: robokata-runner http://your-jenkins-host");
 			System.exit(-100);
 		}
 		
-		String jenkinsBaseUrl = args[0];
-		File localPath = new File("kata-" + new YearMonthDay() + "-" + new TimeOfDay().toString(DateTimeFormat.forPattern("HH-mm-ss")));
+		final String jenkinsBaseUrl = args[0];
+		String resume = System.getProperty("robokata.resume");
+		final File localPath = resume!=null?new File(resume):new File("kata-" + new YearMonthDay() + "-" + new TimeOfDay().toString(DateTimeFormat.forPattern("HH-mm-ss")));
 		
 		mkdirs(localPath);
 		
+		if(Boolean.getBoolean("robokata.watch")){
+			// nobody's there to close robocode's window, and each kata waits for the one before
+			if(BattleSpec.fromSystemProperties().display){
+				Log.info("Watching Jenkins, so battles run without robocode's window");
+				System.setProperty("robokata.battle.display", "false");
+				System.setProperty("robokata.battle.sound", "false");
+			}
+			// the cache lets the kata's discovery reuse the poll that triggered it
+			final JenkinsTool jenkins = new JenkinsTool(jenkinsBaseUrl, new LruResponseCache(64, LruResponseCache.defaultTtls()));
+			new KataWatcher(
+					jenkins,
+					new KataWatcher.Kata() {
+						public void run() {
+							runKata(args, jenkinsBaseUrl, jenkins, localPath);
+						}
+					},
+					Long.getLong("robokata.watch.minSeconds", 10) * 1000,
+					Long.getLong("robokata.watch.maxSeconds", 300) * 1000).run();
+		}else{
+			runKata(args, jenkinsBaseUrl, new JenkinsTool(jenkinsBaseUrl), localPath);
+		}
+	}
+
+	/**
+	 * Finds the contestants and runs the kata once, in <code>localPath</code>.  Reusing the same
+	 * <code>localPath</code> only reprocesses contestants that changed (see {@link KataManifest}).
+	 */
+	static void runKata(String[] args, String jenkinsBaseUrl, JenkinsTool jenkins, File localPath) {
 		@SuppressWarnings("deprecation")
 		YearMonthDay todaysDate = new YearMonthDay();
 		
+		Metrics.clear();
+		Metrics.Timer total = Metrics.start("phase", "phase", "total");
+		Metrics.Timer discovery = Metrics.start("phase", "phase", "discovery");
 		List<JarReference> jars = new ArrayList<JarReference>();
 		
 		addLocalJars(args, jars);
 		
-		addJenkinsJars(jenkinsBaseUrl, todaysDate, jars);
-		
+		addJenkinsJars(jenkinsBaseUrl, jenkins, todaysDate, jars);
+		discovery.stop();
+		Metrics.count("candidates", jars.size());
 		
 		if(jars.isEmpty()){
-			System.out.println("Sorry, there were no contestants.  Everybody loses, especially you!");
+			Log.info("Sorry, there were no contestants.  Everybody loses, especially you!");
 		}else{
 			try {
-				System.out.println("Found " + jars.size() + " candidates.  Starting game, prepare to be ASTOUNDED");
+				Log.info("Found " + jars.size() + " candidates.  Starting game, prepare to be ASTOUNDED");
 				runGame(localPath, jars, todaysDate);
 			} catch (Exception e) {
-				System.out.println("There was an error :'(");
-				e.printStackTrace(System.out);
+				Log.error("There was an error :'(", e);
 			}
 		}
+		total.stop();
+		exportMetrics(localPath);
+	}
+
+	private static void exportMetrics(File localPath) {
+		try {
+			Metrics.export(localPath);
+		} catch (IOException e) {
+			Log.warn("Unable to write metrics to " + localPath.getAbsolutePath() + ": " + e.getMessage());
+		}
 	}
 
 	private static void addLocalJars(String[] args, List<JarReference> jars) {
@@ -137,29 +276,28 @@ public class Main {
 		}
 	}
 
-	private static void addJenkinsJars(String jenkinsBaseUrl,
+	private static void addJenkinsJars(String jenkinsBaseUrl, JenkinsTool jenkins,
 			YearMonthDay todaysDate, List<JarReference> jars) {
 		try {
-			JenkinsTool jenkins = new JenkinsTool(jenkinsBaseUrl);
-			
-			
-			for(JobInfo job : findCandidates(jenkins, todaysDate)){
-				BuildInfo build = jenkins.infoForLastBuildOfJobNamed(job.name);
+			for(JobAndLastBuild candidate : findCandidates(jenkins, todaysDate)){
+				JobInfo job = candidate.job;
+				BuildInfo build = candidate.lastBuild;
 				
-				if(build.artifacts.isEmpty()){
-					System.out.println(job.name + " has no archived artifacts, so it is DISQUALIFIED!");
+				if(build==null || build.artifacts.isEmpty()){
+					Log.warn(job.name + " has no archived artifacts, so it is DISQUALIFIED!");
 				}else{
 					for(ArtifactInfo info : build.artifacts) {
 						jars.add(new JenkinsJar(
-								jenkinsBaseUrl + "/job/" + job.name + "/lastBuild/artifact/" + info.relativePath,
+								jenkinsBaseUrl + "/job/" + job.name + "/" + build.number + "/artifact/" + info.relativePath,
+								job.name,
+								build.number,
 								info));
 					}					
 				}
 				
 			}
 		} catch (Exception e1) {
-			System.out.println("Game setup error ;) ");
-			e1.printStackTrace(System.out);
+			Log.error("Game setup error ;) ", e1);
 		}
 	}
 
@@ -170,75 +308,343 @@ public class Main {
 			File jarsDir = new File(localPath, "jars");
 
 			File robocode = new File(localPath, "robocode");
-			robocode.mkdir();
-			
 			
-			InputStream data = Main.class.getResourceAsStream("/robocode-1.7.3.2-setup.jar");
-			
-			File temp = writeToTempFile(data);
+			Metrics.Timer phase = Metrics.start("phase", "phase", "distribution");
+			Unzipper unzipper = new Unzipper(
+									Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("unzip")),
+									true);
 			
+			RobocodeDistribution distribution = new RobocodeDistribution(new File(cacheRoot(), "robocode"), unzipper);
 			
-			unzip(temp, robocode);
+			InputStream data = Main.class.getResourceAsStream("/robocode-1.7.3.2-setup.jar");
 			
+			File extracted = distribution.extract(data);
 			File battlesDir = new File(robocode, "battles");
 			File robotsDir = new File(robocode, "robots");
 			
+			KataManifest manifest = KataManifest.load(localPath);
+			if(manifest.isEmpty() || !findLaunchScriptForCurrentPlatform(robocode).isFile()){
+				manifest.clear();
+				distribution.cloneInto(extracted, robocode, Collections.singleton("robots"));
+				prepCleanDirectory(jarsDir);
+				prepCleanDirectory(robotsDir);
+			}else{
+				Log.info("Resuming the kata in " + localPath.getAbsolutePath());
+			}
+			phase.stop();
 			
-			prepCleanDirectory(jarsDir);
-			prepCleanDirectory(robotsDir);
-			
-			
-			
+			Entrants entrants = new Entrants();
 			
-			Map<String, RobotEntry> contestantsByJar = new HashMap<String, RobotEntry>();
-			for(JarReference next : jars){
-				final String id = next.url().toString();
+			phase = Metrics.start("phase", "phase", "contestants");
+			ContestantValidator.Limits limits = ContestantValidator.Limits.fromSystemProperties();
+			JarDownloader downloader = new JarDownloader(
+											jarsDir,
+											new ArtifactStore(new File(cacheRoot(), "artifacts"), Long.getLong("robokata.artifacts.maxMB", 512) * 1024 * 1024),
+											Integer.getInteger("robokata.downloads.max", 16),
+											Integer.getInteger("robokata.downloads.perHost", 4),
+											Integer.getInteger("robokata.downloads.timeoutMillis", 60000),
+											Long.getLong("robokata.downloads.deadlineMillis", 5 * 60000),
+											limits);
+			ExecutorService scanners = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("scan"));
+			try{
+				for(KataManifest.Contestant gone : manifest.retainOnly(jars)){
+					forget(gone, manifest, unzipper, jarsDir, robotsDir);
+				}
 				
-				try {
-					File localPathToJar;
-					URL source = next.url();
-					
-					if(source.getProtocol().equals("file")){
-						localPathToJar = new File(source.getPath());
+				int reused = 0;
+				for(JarReference next : jars){
+					KataManifest.Contestant known = manifest.unchanged(next);
+					if(known!=null){
+						reused++;
+						downloader.reserve(known.file.getName());
+						if(entrants.canEnter(next, known.sha256, known.robots)){
+							entrants.enter(next, known.sha256, known.robots);
+						}
 					}else{
-						localPathToJar = new File(jarsDir,next.name());
-						get(source, localPathToJar);
-					}
-					
-					unzip(localPathToJar, robotsDir);
-					
-					for(String robotClass : findRobotClasses(localPathToJar)){
-						RobotEntry entry = contestantsByJar.get(id);
-						if(entry==null){
-							contestantsByJar.put(id, new RobotEntry(next, robotClass));
-						}else{
-							System.out.println("Ignoring " + robotClass + " because there is already a contestant for " + id + " (" + entry.className + ") QUIT CHEATING!");
+						KataManifest.Contestant old = manifest.get(next);
+						if(old!=null){
+							manifest.remove(next);
+							forget(old, manifest, unzipper, jarsDir, robotsDir);
 						}
-						
+						downloader.submit(next);
 					}
-				} catch (Exception e) {
-					System.out.println("There was an error processing jar '" + id + "'.  Jar is disqualified, and loses.");
-					e.printStackTrace(System.out);
 				}
+				if(reused>0){
+					Log.info("Reusing " + reused + " unchanged contestants");
+				}
+				Metrics.count("contestants_reused", reused);
 				
+				ScanCache scanCache = ScanCache.load(cacheRoot(), Integer.getInteger("robokata.scans.maxEntries", 10000));
+				ContestantValidator validator = new ContestantValidator(scanners, limits, scanCache);
+				Map<JarReference, JarDownloader.Download> downloads = new HashMap<JarReference, JarDownloader.Download>();
+				Map<JarReference, Future<ContestantValidator.Verdict>> verdicts = new HashMap<JarReference, Future<ContestantValidator.Verdict>>();
+				while(downloader.hasPending()){
+					JarDownloader.Download download = downloader.take();
+					if(download.failed()){
+						disqualify(download.jar, download.error);
+					}else{
+						downloads.put(download.jar, download);
+						verdicts.put(download.jar, validator.submit(download.file, download.index));
+					}
+				}
+				
+				// only jars that pass go into the robocode home, in the order they were found
+				for(JarReference next : jars){
+					Future<ContestantValidator.Verdict> pending = verdicts.get(next);
+					if(pending==null){
+						continue;
+					}
+					ContestantValidator.Verdict verdict = ContestantValidator.verdict(pending);
+					if(!verdict.qualified()){
+						Log.warn("Jar '" + next.url() + "' is DISQUALIFIED: " + verdict.disqualification);
+						Metrics.count("disqualified", 1);
+						continue;
+					}
+					if(!entrants.canEnter(next, verdict.sha256, verdict.robots)){
+						continue;
+					}
+					try {
+						File localPathToJar = downloads.get(next).file;
+						unzipper.unzip(localPathToJar, robotsDir);
+						manifest.put(next, localPathToJar, verdict.robots, verdict.sha256);
+						entrants.enter(next, verdict.sha256, verdict.robots);
+					} catch (Exception e) {
+						disqualify(next, e);
+					}
+				}
+				manifest.save();
+				try{
+					scanCache.save();
+				}catch(IOException e){
+					Log.warn("Unable to save the scan cache: " + e.getMessage());
+				}
+			}finally{
+				downloader.shutdown();
+				scanners.shutdownNow();
+				phase.stop();
 			}
 			
-			System.out.println("Starting battle");
+			List<RobotEntry> contestants = entrants.all();
+			Metrics.count("contestants", contestants.size());
+			Log.info(contestants.size() + " contestants from " + jars.size() + " candidates");
+			BattleSpec spec = BattleSpec.fromSystemProperties();
+			Log.info("Battle rules: " + spec);
+			spec.configure(robocode);
+			
+			String tournament = System.getProperty("robokata.tournament");
+			String kata = "robokata-" + todaysDate;
+			phase = Metrics.start("phase", "phase", "battle");
+			ResultsStore results = openResults();
+			EmbeddedBattleRunner engine = System.getProperty("robokata.engine", "process").equals("embedded")?startEmbeddedEngine(robocode, spec):null;
+			try{
+				if(tournament!=null){
+					BattleRunner runner;
+					int workers;
+					if(engine!=null){
+						runner = engine;
+						workers = 1;
+					}else{
+						runner = new ProcessBattleRunner(
+										distribution, extracted, robotsDir, new File(localPath, "tournament"), spec,
+										new AsyncCommandRunner.Timeouts(
+												Long.getLong("robokata.tournament.battleTimeoutSeconds", 900) * 1000,
+												Long.getLong("robokata.tournament.idleTimeoutSeconds", 120) * 1000));
+						workers = Integer.getInteger("robokata.tournament.workers", Tournament.defaultWorkers(Integer.getInteger("robokata.tournament.battleMemoryMB", 600)));
+					}
+					List<Tournament.BattleResult> outcome = runTournament(tournament, contestants, runner, workers);
+					Tournament.printStandings(outcome);
+					record(results, kata, outcome);
+					phase.stop();
+					return;
+				}else if(engine!=null){
+					List<Tournament.BattleResult> outcome = new Tournament(engine, 1).run(Collections.singletonList(new Tournament.Battle("robokata-battle-" + todaysDate, contestants)));
+					Tournament.printStandings(outcome);
+					record(results, kata, outcome);
+					phase.stop();
+					return;
+				}
+			}finally{
+				if(engine!=null){
+					engine.close();
+				}
+				if(tournament!=null || engine!=null){
+					closeResults(results);
+				}
+			}
+			
+			Log.info("Starting battle");
 			File battleConfig = new File(battlesDir, "robokata-battle-" + todaysDate + ".battle");
 			
-			renderBattleConfig(contestantsByJar.values(), battleConfig);
+			renderBattleConfig(spec, contestants, battleConfig);
 			
 			File launchScript = findLaunchScriptForCurrentPlatform(robocode);
 			
 			launchScript.setExecutable(true);
 			
-			new CommandRunnerImpl(robocode).runPassThrough(launchScript.getAbsolutePath(), "-battle", battlesDir.getName() + "/" + battleConfig.getName());
+			File resultsFile = new File(robocode, "results.txt");
+			FileUtils.deleteQuietly(resultsFile);
+			List<String> args = new ArrayList<String>();
+			args.add("-battle");
+			args.add(battlesDir.getName() + "/" + battleConfig.getName());
+			args.add("-results");
+			args.add(resultsFile.getName());
+			args.addAll(spec.launcherArgs());
+			
+			// robocode can stay open for a long time; the setup numbers are useful before it closes
+			exportMetrics(localPath);
+			long started = System.currentTimeMillis();
+			try{
+				if(spec.display){
+					new CommandRunnerImpl(robocode).runPassThrough(launchScript.getAbsolutePath(), args.toArray(new String[args.size()]));
+				}else{
+					// nothing to interact with, so it doesn't get the console's input
+					new CommandRunnerImpl(robocode).run((OutputStream) null, null, launchScript.getAbsolutePath(), args.toArray(new String[args.size()]));
+				}
+				if(resultsFile.isFile()){
+					Tournament.Battle battle = new Tournament.Battle("robokata-battle-" + todaysDate, contestants);
+					record(results, kata, Collections.singletonList(new Tournament.BattleResult(battle, ProcessBattleRunner.readResults(resultsFile), null, started)));
+				}
+			}finally{
+				closeResults(results);
+			}
+			phase.stop();
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	private static File findLaunchScriptForCurrentPlatform(File robocode) {
+	/**
+	 * @param mode <code>pairs</code> for a full round robin, or <code>groups:N</code> for melees of N robots
+	 */
+	private static List<Tournament.BattleResult> runTournament(String mode, List<RobotEntry> contestants, BattleRunner runner, int workers) {
+		List<Tournament.Battle> battles;
+		if(mode.equals("pairs")){
+			battles = Tournament.roundRobin(contestants);
+		}else if(mode.startsWith("groups:") && groupSize(mode)>=2){
+			battles = Tournament.groups(contestants, groupSize(mode));
+		}else{
+			throw new RuntimeException("Unknown tournament mode '" + mode + "', expected 'pairs' or 'groups:N' with N of 2 or more");
+		}
+		
+		return new Tournament(runner, workers).run(battles);
+	}
+
+	/**
+	 * @return the N of <code>groups:N</code>, or 0 if it isn't a number
+	 */
+	private static int groupSize(String mode) {
+		try{
+			return Integer.parseInt(mode.substring("groups:".length()));
+		}catch(NumberFormatException e){
+			return 0;
+		}
+	}
+
+	/**
+	 * @return null, after saying why, if there's nowhere to keep results
+	 */
+	private static ResultsStore openResults() {
+		try{
+			return ResultsStore.fromSystemProperties(new File(cacheRoot(), "results"));
+		}catch(IOException e){
+			Log.warn("Unable to open the results store, this kata's results won't be kept: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static void closeResults(ResultsStore results) {
+		if(results!=null){
+			results.close();
+		}
+	}
+
+	/**
+	 * Keeps the outcome of every battle that finished, with each robot's team and jar, and
+	 * shows how the ratings of those who took part have moved.
+	 */
+	private static void record(ResultsStore results, String kata, List<Tournament.BattleResult> outcome) {
+		if(results==null){
+			return;
+		}
+		int recorded = 0;
+		Set<String> teams = new HashSet<String>();
+		try{
+			File snapshot = new File(cacheRoot(), Ratings.FILE_NAME);
+			Ratings ratings = Ratings.open(results, snapshot, Ratings.Parameters.fromSystemProperties());
+			for(Tournament.BattleResult next : outcome){
+				if(next.error!=null){
+					continue;
+				}
+				Map<String, RobotEntry> byRobot = new HashMap<String, RobotEntry>();
+				for(RobotEntry robot : next.battle.robots){
+					byRobot.put(robot.className, robot);
+				}
+				List<ResultsStore.Participant> participants = new ArrayList<ResultsStore.Participant>();
+				for(Tournament.Score score : next.scores){
+					RobotEntry robot = byRobot.get(score.robot);
+					participants.add(new ResultsStore.Participant(
+											robot==null?score.robot:robot.contestant.id(),
+											score.robot,
+											robot==null?null:robot.sha256,
+											score.rank,
+											score.total));
+				}
+				ResultsStore.BattleRecord record = new ResultsStore.BattleRecord(next.finished, next.durationMillis, kata + "/" + next.battle.name, participants);
+				results.append(record);
+				ratings.add(record);
+				for(ResultsStore.Participant participant : participants){
+					teams.add(participant.team);
+				}
+				recorded++;
+			}
+			try{
+				ratings.save(snapshot);
+			}catch(IOException e){
+				Log.warn("Unable to save the ratings, the next kata will rate every battle again: " + e.getMessage());
+			}
+			Log.info("Ratings after " + ratings.battles() + " battles:");
+			for(Ratings.Rating next : ratings.standings()){
+				if(teams.contains(next.team)){
+					Log.info("  " + Math.round(next.rating) + "  " + next.team + " (" + next.battles + " battles)");
+				}
+			}
+		}catch(IOException e){
+			Log.warn("Unable to record battle results: " + e.getMessage());
+		}
+		Metrics.count("results_recorded", recorded);
+	}
+
+	/**
+	 * @return null if robocode's control API can't be started here, in which case battles are shelled out as usual
+	 */
+	private static EmbeddedBattleRunner startEmbeddedEngine(File robocode, BattleSpec spec) {
+		try{
+			return new EmbeddedBattleRunner(robocode, spec);
+		}catch(Throwable e){
+			Log.error("Unable to start the embedded robocode engine, falling back to the launch script", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Takes a contestant from an earlier run out of the workspace: its robot files (but not those the
+	 * contestants still in <code>manifest</code> installed too), and its jar if we downloaded it.
+	 */
+	private static void forget(KataManifest.Contestant old, KataManifest manifest, Unzipper unzipper, File jarsDir, File robotsDir) throws IOException {
+		if(!old.file.isFile()){
+			return;
+		}
+		unzipper.remove(old.file, robotsDir, manifest.paths());
+		if(jarsDir.getAbsoluteFile().equals(old.file.getParentFile())){
+			FileUtils.deleteQuietly(old.file);
+		}
+	}
+
+	private static void disqualify(JarReference jar, Throwable e) {
+		Log.error("There was an error processing jar '" + jar.url() + "'.  Jar is disqualified, and loses.", e);
+	}
+
+	static File findLaunchScriptForCurrentPlatform(File robocode) {
 		File launchScript;
 		
 		if(System.getProperty("os.name").toLowerCase().contains("windows")){
@@ -256,30 +662,11 @@ public class Main {
 		return dest;
 	}
 
-	private static void unzip(File temp, File dest) throws ZipException,
-			IOException, FileNotFoundException {
-		ZipFile z = new ZipFile(temp);
-		Enumeration<? extends ZipEntry> entries = z.entries();
-		
-		while(entries.hasMoreElements()){
-			ZipEntry next = entries.nextElement();
-			File x = new File(dest, next.getName());
-			
-			if(next.getName().isEmpty()){
-				System.out.println("[UNZIP] Zip entry has empty name ... wierd ... ignoring it :'( .");
-			}else{
-				System.out.println("[UNZIP] " + next.getName() + " to " + x.getAbsolutePath());
-				if(next.isDirectory()){
-					mkdirs(x);
-				}else{
-					FileOutputStream out = new FileOutputStream(x);
-					IOUtils.copy(z.getInputStream(next), out);
-					out.close();
-				}
-			}
-			
-			
-		}
+	/**
+	 * Where state that outlives a single kata is kept.
+	 */
+	static File cacheRoot() {
+		return new File(System.getProperty("robokata.cache", new File(System.getProperty("user.home"), ".robokata").getPath()));
 	}
 
 	private static void mkdirs(File x) {
@@ -288,28 +675,17 @@ public class Main {
 		}
 	}
 
-	private static File writeToTempFile(InputStream data) throws IOException,
-			FileNotFoundException {
-		File temp = File.createTempFile("robocode-1.7.3.2", ".zip");
-		FileOutputStream tempOut = new FileOutputStream(temp);
-		IOUtils.copy(
-					data, 
-					tempOut
-				);
-		tempOut.close();
-		return temp;
-	}
-
-	private static void renderBattleConfig(Collection<RobotEntry> robots,
+	static void renderBattleConfig(BattleSpec spec, Collection<RobotEntry> robots,
 			File battleConfig) {
 		createFile(battleConfig);
 		
-		Properties props = new Properties();
-		props.put("robocode.battle.numRounds", "3");
-		props.put("robocode.battle.gunCoolingRate", "0.1");
-		props.put("robocode.battleField.width", "800");
-		props.put("robocode.battle.rules.inactivityTime", "450");
+		Properties props = spec.battleProperties();
+		props.put("robocode.battle.selectedRobots", selectedRobots(robots));
 		
+		write(battleConfig, props);
+	}
+
+	static String selectedRobots(Collection<RobotEntry> robots) {
 		StringBuilder text = new StringBuilder();
 		for(RobotEntry next : robots){
 			if(text.length()>0){
@@ -318,44 +694,8 @@ public class Main {
 			text.append(next.className + "*");
 			//"stu.Robot*"
 		}
-		
-		props.put("robocode.battle.selectedRobots", text.toString());
-		props.put("robocode.battle.hideEnemyNames", "false");
-		props.put("robocode.battleField.height", "600");
-		
-		write(battleConfig, props);
-	}
-
-	private static List<String> findRobotClasses(File localPathToJar) {
-		List<String> robots = new ArrayList<String>();
-		try {
-			URLClassLoader cl = new URLClassLoader(new URL[]{localPathToJar.toURL()}, Main.class.getClassLoader());
-			Class<Robot> c = Robot.class;
-			ZipFile zip = new ZipFile(localPathToJar);
-			Enumeration<? extends ZipEntry> entries = zip.entries();
-			while(entries.hasMoreElements()){
-				ZipEntry next = entries.nextElement();
-				String name = next.getName();
-				
-				if(name.endsWith(".class")){
-					System.out.println("Found: " + name);
-					name = name.replaceAll(Pattern.quote(".class"), "").replaceAll(Pattern.quote("/"), ".");
-					Class<?> z = cl.loadClass(name);
-					System.out.println("Loaded class: " + z.getName());
-					if(c.isAssignableFrom(z)){
-						robots.add(name);
-					}
-				}
-				
-			}
-		} catch (Throwable e) {
-			System.out.println("Error reading " + localPathToJar.getAbsolutePath());
-			e.printStackTrace(System.out);
-		}
-		return robots;
+		return text.toString();
 	}
-	
-	
 
 	private static void createFile(File battleConfig) {
 		String msg = "Unable to create file: " + battleConfig.getAbsolutePath();
@@ -385,36 +725,22 @@ public class Main {
 		FileUtils.cleanDirectory(localPath);
 	}
 
-	private static void get(URL url, File dest) {
-		try{
-			System.out.println("Downloading " + url + " to " + dest.getAbsolutePath());
-			FileOutputStream out = new FileOutputStream(dest);
-			IOUtils.copy(url.openStream(), out);
-			out.close();
-			
-		}catch(Exception e){
-			throw new RuntimeException(e);
-		}
-	}
-
-	private static List<JobInfo> findCandidates(JenkinsTool jenkins, YearMonthDay todaysDate) {
-		List<JobInfo> candidates = new LinkedList<JobInfo>();
+	private static List<JobAndLastBuild> findCandidates(JenkinsTool jenkins, YearMonthDay todaysDate) {
+		List<JobAndLastBuild> candidates = new LinkedList<JobAndLastBuild>();
 		
-		for(JobInfo job : jenkins.getListOfJobs()){
-			if(matchesNameFilter(todaysDate, job)){
-				System.out.println("Found job: " + job.name);
-				if(job.status == JobStatus.BLUE){
-					candidates.add(job);
-				}else{
-					System.out.println(job.name + " is disqualified because it is broken! :'(");
-				}
+		for(JobAndLastBuild next : jenkins.getJobsWithLastBuild(namePrefix(todaysDate))){
+			JobInfo job = next.job;
+			Log.debug("Found job: " + job.name);
+			if(job.status == JobStatus.BLUE){
+				candidates.add(next);
+			}else{
+				Log.warn(job.name + " is disqualified because it is broken! :'(");
 			}
 		}
 		return candidates;
 	}
 
-	private static boolean matchesNameFilter(YearMonthDay todaysDate,
-			JobInfo job) {
-		return job.name.startsWith("robokata-" + todaysDate);
+	static String namePrefix(YearMonthDay todaysDate) {
+		return "robokata-" + todaysDate;
 	}
 }
@@ -0,0 +1,204 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and counts for a kata run, so a slow start can be pinned on the phase (or the jar,
+ * or the Jenkins request) that caused it.
+ *
+ * Series are named and labelled the Prometheus way and kept in one registry for the whole
+ * process.  Recording is a few atomic adds, so it's fine from the download, unzip and scan
+ * pools.  {@link #export(File)} writes everything as <code>metrics.json</code> and as
+ * <code>metrics.prom</code> (Prometheus text format, e.g. for node_exporter's textfile collector).
+ */
+class Metrics {
+	private static final ConcurrentMap<String, Series> SERIES = new ConcurrentHashMap<String, Series>();
+
+	private static class Series {
+		final String name;
+		final String[] labels;
+		final boolean timer;
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong max = new AtomicLong();
+
+		Series(String name, String[] labels, boolean timer) {
+			super();
+			this.name = name;
+			this.labels = labels;
+			this.timer = timer;
+		}
+
+		void record(long value){
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			for(long seen = max.get();seen < value && !max.compareAndSet(seen, value);seen = max.get());
+		}
+	}
+
+	static class Timer {
+		private final Series series;
+		private final long start = System.nanoTime();
+
+		private Timer(Series series) {
+			super();
+			this.series = series;
+		}
+
+		/**
+		 * @return the elapsed nanoseconds, which have also been recorded
+		 */
+		long stop(){
+			long elapsed = System.nanoTime() - start;
+			series.record(elapsed);
+			return elapsed;
+		}
+	}
+
+	/**
+	 * @param labels alternating label names and values
+	 */
+	static Timer start(String name, String ... labels){
+		return new Timer(series(name, labels, true));
+	}
+
+	static void count(String name, long amount, String ... labels){
+		series(name, labels, false).record(amount);
+	}
+
+	static void clear(){
+		SERIES.clear();
+	}
+
+	private static Series series(String name, String[] labels, boolean timer){
+		if(labels.length % 2!=0){
+			throw new IllegalArgumentException("Labels for " + name + " must come in name/value pairs");
+		}
+		String key = name + (timer?"#t":"#c") + prometheusLabels(labels);
+		Series series = SERIES.get(key);
+		if(series==null){
+			Series fresh = new Series(name, labels.clone(), timer);
+			series = SERIES.putIfAbsent(key, fresh);
+			if(series==null){
+				series = fresh;
+			}
+		}
+		return series;
+	}
+
+	private static List<Series> sorted(){
+		return new ArrayList<Series>(new TreeMap<String, Series>(SERIES).values());
+	}
+
+	static void export(File dir) throws IOException {
+		write(new File(dir, "metrics.json"), json());
+		write(new File(dir, "metrics.prom"), prometheus());
+	}
+
+	static String json(){
+		StringBuilder timers = new StringBuilder();
+		StringBuilder counters = new StringBuilder();
+		for(Series next : sorted()){
+			StringBuilder into = next.timer?timers:counters;
+			into.append(into.length()==0?"\n    ":",\n    ")
+				.append("{\"name\": ").append(jsonString(next.name))
+				.append(", \"labels\": {");
+			for(int x=0;x<next.labels.length;x+=2){
+				into.append(x==0?"":", ").append(jsonString(next.labels[x])).append(": ").append(jsonString(next.labels[x + 1]));
+			}
+			into.append("}, \"count\": ").append(next.count.get());
+			if(next.timer){
+				into.append(", \"seconds\": ").append(seconds(next.sum.get()))
+					.append(", \"maxSeconds\": ").append(seconds(next.max.get()));
+			}else{
+				into.append(", \"total\": ").append(next.sum.get());
+			}
+			into.append("}");
+		}
+		return "{\n  \"timers\": [" + timers + "\n  ],\n  \"counters\": [" + counters + "\n  ]\n}\n";
+	}
+
+	static String prometheus(){
+		Map<String, StringBuilder> families = new TreeMap<String, StringBuilder>();
+		for(Series next : sorted()){
+			String labels = prometheusLabels(next.labels);
+			if(next.timer){
+				String metric = "robokata_" + next.name + "_seconds";
+				family(families, metric, "summary")
+					.append(metric).append("_count").append(labels).append(' ').append(next.count.get()).append('\n')
+					.append(metric).append("_sum").append(labels).append(' ').append(seconds(next.sum.get())).append('\n');
+				family(families, metric + "_max", "gauge")
+					.append(metric).append("_max").append(labels).append(' ').append(seconds(next.max.get())).append('\n');
+			}else{
+				String metric = "robokata_" + next.name + "_total";
+				family(families, metric, "counter")
+					.append(metric).append(labels).append(' ').append(next.sum.get()).append('\n');
+			}
+		}
+		StringBuilder text = new StringBuilder();
+		for(StringBuilder next : families.values()){
+			text.append(next);
+		}
+		return text.toString();
+	}
+
+	private static StringBuilder family(Map<String, StringBuilder> families, String metric, String type){
+		StringBuilder family = families.get(metric);
+		if(family==null){
+			family = new StringBuilder("# TYPE " + metric + " " + type + "\n");
+			families.put(metric, family);
+		}
+		return family;
+	}
+
+	private static String prometheusLabels(String[] labels){
+		if(labels.length==0){
+			return "";
+		}
+		StringBuilder text = new StringBuilder("{");
+		for(int x=0;x<labels.length;x+=2){
+			text.append(x==0?"":",").append(labels[x]).append("=\"")
+				.append(labels[x + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+				.append('"');
+		}
+		return text.append('}').toString();
+	}
+
+	private static String jsonString(String text){
+		StringBuilder quoted = new StringBuilder("\"");
+		for(char c : text.toCharArray()){
+			if(c=='"' || c=='\\'){
+				quoted.append('\\').append(c);
+			}else if(c < 0x20){
+				quoted.append(String.format("\\u%04x", (int) c));
+			}else{
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static String seconds(long nanos){
+		return String.valueOf(nanos / 1e9);
+	}
+
+	private static void write(File file, String text) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try{
+			out.write(text);
+		}finally{
+			out.close();
+		}
+	}
+}
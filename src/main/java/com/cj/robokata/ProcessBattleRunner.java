@@ -0,0 +1,140 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+
+import com.cj.robokata.AsyncCommandRunner.Result;
+import com.cj.robokata.AsyncCommandRunner.Timeouts;
+import com.cj.robokata.Tournament.Battle;
+import com.cj.robokata.Tournament.Score;
+
+/**
+ * Runs each battle through robocode's launch script in a robocode home of its own
+ * (cloned from the distribution cache), so any number of them can run at once.
+ * Since they run side by side, these battles are never displayed, whatever the spec says.
+ * Each home is deleted once its battle's results are in.
+ */
+class ProcessBattleRunner implements BattleRunner {
+	/**
+	 * Robocode's launch script starts its JVM on this machine, in our environment, without
+	 * choosing an encoding, so that JVM prints in the same platform charset ours has.
+	 */
+	static final Charset ROBOCODE_OUTPUT = Charset.defaultCharset();
+
+	private final RobocodeDistribution distribution;
+	private final File extracted;
+	private final File robotsDir;
+	private final File battlesRoot;
+	private final BattleSpec spec;
+	private final Timeouts timeouts;
+
+	/**
+	 * @param timeouts when to give up on a battle's robocode process (and kill it)
+	 */
+	public ProcessBattleRunner(RobocodeDistribution distribution, File extracted, File robotsDir, File battlesRoot, BattleSpec spec, Timeouts timeouts) {
+		super();
+		this.distribution = distribution;
+		this.extracted = extracted;
+		this.robotsDir = robotsDir;
+		this.battlesRoot = battlesRoot;
+		this.spec = spec;
+		this.timeouts = timeouts;
+	}
+
+	public List<Score> fight(final Battle battle) throws IOException {
+		File home = new File(battlesRoot, battle.name);
+		distribution.cloneInto(extracted, home, Collections.singleton("robots"));
+		RobocodeDistribution.cloneRobots(robotsDir, new File(home, "robots"));
+
+		File battlesDir = new File(home, "battles");
+		File battleConfig = new File(battlesDir, battle.name + ".battle");
+		Main.renderBattleConfig(spec, battle.robots, battleConfig);
+		spec.configure(home);
+
+		File results = new File(home, "results.txt");
+		File log = new File(home, "battle.log");
+
+		Log.debug("Starting battle " + battle.name);
+		// followed live as well as logged, so progress shows without holding the output in memory
+		RobocodeOutput live = new RobocodeOutput(new RobocodeOutput.Listener() {
+			public void roundStarted(int round) {
+				Log.debug("Battle " + battle.name + ": round " + round + " of " + spec.numRounds);
+			}
+
+			public void scored(Score score) {
+			}
+		});
+		OutputStream out = new TeeOutputStream(new FileOutputStream(log), new LineSplitter(live, ROBOCODE_OUTPUT));
+		AsyncCommandRunnerImpl.Running running;
+		try{
+			running = new AsyncCommandRunnerImpl(home).start(
+						timeouts,
+						out,
+						null,
+						Main.findLaunchScriptForCurrentPlatform(home).getAbsolutePath(),
+						"-battle", battlesDir.getName() + "/" + battleConfig.getName(),
+						"-results", results.getName(),
+						"-nodisplay",
+						"-nosound");
+		}catch(RuntimeException e){
+			IOUtils.closeQuietly(out);
+			throw e;
+		}
+		Result result;
+		try{
+			result = running.get();
+		}catch(InterruptedException e){
+			running.cancel(true);
+			throw new IOException("Battle " + battle.name + " was interrupted");
+		}catch(ExecutionException e){
+			throw new IOException("Battle " + battle.name + " failed, see " + log.getAbsolutePath(), e.getCause());
+		}
+		if(result.timedOut!=null){
+			throw new IOException("Battle " + battle.name + " was killed after exceeding its " + result.timedOut + " timeout, see " + log.getAbsolutePath());
+		}else if(result.exitCode!=0){
+			throw new IOException("Battle " + battle.name + " exited with " + result.exitCode + ", see " + log.getAbsolutePath());
+		}
+
+		List<Score> scores;
+		if(!results.exists() && !live.scores().isEmpty()){
+			scores = live.scores();
+		}else{
+			scores = readResults(results);
+		}
+		// a battle that goes wrong keeps its home, for the log
+		FileUtils.deleteQuietly(home);
+		return scores;
+	}
+
+	/**
+	 * Reads the table robocode writes with <code>-results</code>, e.g.
+	 * <pre>1st: sample.Walls*	1079 (34%)	450	...</pre>
+	 */
+	static List<Score> readResults(File results) throws IOException {
+		RobocodeOutput output = new RobocodeOutput(null);
+		InputStream in = FileUtils.openInputStream(results);
+		try{
+			for(String next : IOUtils.readLines(in)){
+				output.line(next);
+			}
+		}finally{
+			in.close();
+		}
+		List<Score> scores = output.scores();
+		if(scores.isEmpty()){
+			throw new IOException("No scores in " + results.getAbsolutePath());
+		}
+		return scores;
+	}
+}
@@ -0,0 +1,324 @@
+package com.cj.robokata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Elo ratings for every contestant, kept up to date one battle at a time.  A battle of N robots
+ * counts as every pair of them playing a game, the better placed winning (a tie if they placed
+ * the same), each pair's weight shrunk by N-1 so a melee moves a rating about as far as a duel.
+ * Everyone's changes from a battle are worked out from their ratings going in, then applied.
+ *
+ * Contestants are numbered as they're first seen, and their ratings (and the battles so far,
+ * as the numbers and ranks of who took part) are kept in plain arrays, so recomputing from
+ * scratch with other {@link Parameters} doesn't go back to the {@link ResultsStore}.
+ *
+ * Between runs, just the ratings are kept, in a snapshot that notes how many of the store's
+ * battles they cover; {@link #open(ResultsStore, File, Parameters)} rates only the battles
+ * recorded since, and replays the whole store only when the parameters have changed.
+ *
+ * Not safe to use from several threads.
+ */
+class Ratings {
+	static final String FILE_NAME = "ratings.dat";
+	private static final int MAGIC = 0x524B4531;// RKE1
+
+	static class Parameters {
+		/** where a new contestant starts */
+		final double initial;
+		/** the most a rating can move in one battle */
+		final double k;
+		/** a difference this big makes the higher rated ten times the favourite */
+		final double scale;
+
+		Parameters(double initial, double k, double scale) {
+			super();
+			this.initial = initial;
+			this.k = k;
+			this.scale = scale;
+		}
+
+		static Parameters fromSystemProperties() {
+			return new Parameters(
+					Double.parseDouble(System.getProperty("robokata.ratings.initial", "1500")),
+					Double.parseDouble(System.getProperty("robokata.ratings.k", "32")),
+					Double.parseDouble(System.getProperty("robokata.ratings.scale", "400")));
+		}
+	}
+
+	static class Rating {
+		final String team;
+		final double rating;
+		final int battles;
+
+		Rating(String team, double rating, int battles) {
+			super();
+			this.team = team;
+			this.rating = rating;
+			this.battles = battles;
+		}
+	}
+
+	private Parameters parameters;
+	/** battles rated, in all */
+	private long rated = 0;
+	/** whether every battle rated is in the arrays below, or only those since a snapshot */
+	private boolean complete = true;
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private String[] teams = new String[16];
+	private double[] ratings = new double[16];
+	private int[] battles = new int[16];
+
+	/** battle b's participants are at starts[b] up to starts[b+1] in who and ranks */
+	private int[] starts = new int[64];
+	private int battleCount = 0;
+	private int[] who = new int[128];
+	private int[] ranks = new int[128];
+	/** one battle's worth of rating changes */
+	private double[] changes = new double[8];
+
+	Ratings(Parameters parameters) {
+		super();
+		this.parameters = parameters;
+	}
+
+	/**
+	 * The ratings from the snapshot in <code>file</code>, brought up to date with the battles
+	 * <code>store</code> has recorded since.  Without a snapshot, or with one made with other
+	 * parameters (or of battles the store no longer has), every battle is rated again.
+	 */
+	static Ratings open(ResultsStore store, File file, Parameters parameters) throws IOException {
+		Ratings ratings = load(file, parameters);
+		if(ratings==null || ratings.rated > store.records()){
+			Log.info("Rating all " + store.records() + " recorded battles");
+			return replay(store, Long.MIN_VALUE, Long.MAX_VALUE, parameters);
+		}
+		final Ratings loaded = ratings;
+		store.replayFrom(ratings.rated, new ResultsStore.BattleSink() {
+			public void battle(ResultsStore.BattleRecord record) {
+				loaded.add(record);
+			}
+		});
+		return ratings;
+	}
+
+	/**
+	 * @return null if there's no snapshot, or it was made with other parameters
+	 */
+	static Ratings load(File file, Parameters parameters) {
+		if(!file.isFile()){
+			return null;
+		}
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try{
+				if(in.readInt()!=MAGIC
+						|| in.readDouble()!=parameters.initial
+						|| in.readDouble()!=parameters.k
+						|| in.readDouble()!=parameters.scale){
+					return null;
+				}
+				Ratings ratings = new Ratings(parameters);
+				ratings.complete = false;
+				ratings.rated = in.readLong();
+				int count = in.readInt();
+				for(int x=0;x<count;x++){
+					int id = ratings.id(in.readUTF());
+					ratings.ratings[id] = in.readDouble();
+					ratings.battles[id] = in.readInt();
+				}
+				return ratings;
+			}finally{
+				in.close();
+			}
+		}catch(IOException e){
+			Log.warn("Ignoring unreadable ratings " + file.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	void save(File file) throws IOException {
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try{
+			out.writeInt(MAGIC);
+			out.writeDouble(parameters.initial);
+			out.writeDouble(parameters.k);
+			out.writeDouble(parameters.scale);
+			out.writeLong(rated);
+			out.writeInt(ids.size());
+			for(int id=0;id<ids.size();id++){
+				out.writeUTF(teams[id]);
+				out.writeDouble(ratings[id]);
+				out.writeInt(battles[id]);
+			}
+		}finally{
+			out.close();
+		}
+		if(!temp.renameTo(file)){
+			FileUtils.copyFile(temp, file);
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	/**
+	 * Rates every battle in <code>store</code> between <code>from</code> and <code>to</code>,
+	 * in the order they were recorded.
+	 */
+	static Ratings replay(ResultsStore store, long from, long to, Parameters parameters) throws IOException {
+		final Ratings ratings = new Ratings(parameters);
+		store.replay(from, to, new ResultsStore.BattleSink() {
+			public void battle(ResultsStore.BattleRecord record) {
+				ratings.add(record);
+			}
+		});
+		return ratings;
+	}
+
+	/**
+	 * @return the contestant's number, giving it the next one if it hasn't been seen before
+	 */
+	int id(String team){
+		Integer id = ids.get(team);
+		if(id==null){
+			id = ids.size();
+			ids.put(team, id);
+			if(id==teams.length){
+				teams = Arrays.copyOf(teams, id * 2);
+				ratings = Arrays.copyOf(ratings, id * 2);
+				battles = Arrays.copyOf(battles, id * 2);
+			}
+			teams[id] = team;
+			ratings[id] = parameters.initial;
+		}
+		return id;
+	}
+
+	void add(ResultsStore.BattleRecord record){
+		int count = record.participants.size();
+		int[] participants = new int[count];
+		int[] placed = new int[count];
+		for(int x=0;x<count;x++){
+			ResultsStore.Participant next = record.participants.get(x);
+			participants[x] = id(next.team);
+			placed[x] = next.rank;
+		}
+		battle(participants, placed, count);
+	}
+
+	/**
+	 * Rates one battle, and remembers it in case of a {@link #recompute(Parameters)}.
+	 *
+	 * @param participants contestant numbers, from {@link #id(String)}
+	 * @param placed each one's rank, 1 for the winner
+	 */
+	void battle(int[] participants, int[] placed, int count){
+		int start = starts[battleCount];
+		if(start + count > who.length){
+			int capacity = Math.max(who.length * 2, start + count);
+			who = Arrays.copyOf(who, capacity);
+			ranks = Arrays.copyOf(ranks, capacity);
+		}
+		if(battleCount + 2 > starts.length){
+			starts = Arrays.copyOf(starts, starts.length * 2);
+		}
+		System.arraycopy(participants, 0, who, start, count);
+		System.arraycopy(placed, 0, ranks, start, count);
+		starts[++battleCount] = start + count;
+		rated++;
+		rate(start, start + count);
+	}
+
+	/**
+	 * Starts everyone over at <code>parameters.initial</code> and rates every battle again.
+	 *
+	 * @throws IllegalStateException if the ratings were loaded from a snapshot, which doesn't
+	 *         have the battles; {@link #replay(ResultsStore, long, long, Parameters)} them instead
+	 */
+	void recompute(Parameters parameters){
+		if(!complete){
+			throw new IllegalStateException("Ratings from a snapshot can't be recomputed, replay the results instead");
+		}
+		this.parameters = parameters;
+		Arrays.fill(ratings, 0, ids.size(), parameters.initial);
+		Arrays.fill(battles, 0, ids.size(), 0);
+		for(int b=0;b<battleCount;b++){
+			rate(starts[b], starts[b + 1]);
+		}
+	}
+
+	private void rate(int from, int to){
+		int n = to - from;
+		if(n > changes.length){
+			changes = new double[Math.max(n, changes.length * 2)];
+		}
+		Arrays.fill(changes, 0, n, 0);
+		double k = parameters.k / Math.max(1, n - 1);
+		// 10^(d/scale), as e^(d*perPoint)
+		double perPoint = Math.log(10) / parameters.scale;
+		for(int x=0;x<n;x++){
+			int a = who[from + x];
+			for(int y=x + 1;y<n;y++){
+				int b = who[from + y];
+				double expected = 1 / (1 + Math.exp((ratings[b] - ratings[a]) * perPoint));
+				int ra = ranks[from + x];
+				int rb = ranks[from + y];
+				double actual = ra<rb?1:(ra==rb?0.5:0);
+				double change = k * (actual - expected);
+				changes[x] += change;
+				changes[y] -= change;
+			}
+		}
+		for(int x=0;x<n;x++){
+			int id = who[from + x];
+			ratings[id] += changes[x];
+			battles[id]++;
+		}
+	}
+
+	/**
+	 * @return <code>parameters.initial</code> for a contestant that hasn't battled
+	 */
+	double rating(String team){
+		Integer id = ids.get(team);
+		return id==null?parameters.initial:ratings[id];
+	}
+
+	/**
+	 * @return battles rated, including those in the snapshot the ratings came from
+	 */
+	long battles(){
+		return rated;
+	}
+
+	/**
+	 * Every contestant rated so far, best first.
+	 */
+	List<Rating> standings(){
+		List<Rating> standings = new ArrayList<Rating>(ids.size());
+		for(int id=0;id<ids.size();id++){
+			standings.add(new Rating(teams[id], ratings[id], battles[id]));
+		}
+		Collections.sort(standings, new Comparator<Rating>() {
+			public int compare(Rating a, Rating b) {
+				return Double.compare(b.rating, a.rating);
+			}
+		});
+		return standings;
+	}
+}
@@ -0,0 +1,30 @@
+package com.cj.robokata;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.cj.robokata.JenkinsTool.Endpoint;
+
+/**
+ * Sits between {@link JenkinsTool} and the server.
+ */
+public interface ResponseCache {
+
+	interface Source {
+		InputStream open() throws IOException;
+	}
+
+	/**
+	 * @return the response body for <code>url</code>, either remembered or freshly read from <code>source</code>
+	 */
+	InputStream open(String url, Endpoint endpoint, Source source) throws IOException;
+
+	/**
+	 * Always goes to the server, streaming the response straight through.
+	 */
+	ResponseCache NONE = new ResponseCache() {
+		public InputStream open(String url, Endpoint endpoint, Source source) throws IOException {
+			return source.open();
+		}
+	};
+}
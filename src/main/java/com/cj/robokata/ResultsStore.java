@@ -0,0 +1,946 @@
+package com.cj.robokata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Every battle's outcome, kept from one kata to the next: who took part (their team, robot
+ * and jar), how they placed and scored, and when and for how long the battle ran.
+ *
+ * Battles are appended to the newest segment file, each as one length-prefixed, CRC-checked
+ * record, so a write cut short is found and dropped when the store is next opened.  Once a
+ * segment reaches <code>maxSegmentBytes</code> it's sealed: never written again, and given an
+ * index listing, for each team, the records it appears in and its totals.  Queries go through
+ * the indexes (the newest segment's is kept in memory), so a leaderboard over whole segments
+ * only adds up their totals, and a team's history or a head-to-head only reads the records
+ * those teams are in.
+ *
+ * Sealed segments are merged in the background, up to <code>maxMergedBytes</code>, so months of
+ * katas stay a handful of files.  A merged segment is named after the range of segments it
+ * replaces, and it only counts once it's been renamed into place; opening the store clears away
+ * anything a merge left behind.
+ *
+ * Meant to be used by one runner process at a time; safe to use from several threads.
+ */
+class ResultsStore {
+	static final String SEGMENT = ".seg";
+	static final String INDEX = ".idx";
+	private static final int SEGMENT_MAGIC = 0x524B5231;// RKR1
+	private static final int INDEX_MAGIC = 0x524B4931;// RKI1
+	private static final int HEADER = 4;
+	/** sealed segments in a row it takes to be worth merging */
+	private static final int MERGE_FACTOR = 4;
+
+	static class Participant {
+		/** the contestant's id: its Jenkins job and artifact, or the jar's path */
+		final String team;
+		final String robot;
+		/** of the contestant's jar, or null if unknown */
+		final String sha256;
+		final int rank;
+		final int score;
+
+		Participant(String team, String robot, String sha256, int rank, int score) {
+			super();
+			this.team = team;
+			this.robot = robot;
+			this.sha256 = sha256;
+			this.rank = rank;
+			this.score = score;
+		}
+	}
+
+	static class BattleRecord {
+		/** when the battle finished */
+		final long time;
+		final long durationMillis;
+		final String name;
+		final List<Participant> participants;
+
+		BattleRecord(long time, long durationMillis, String name, List<Participant> participants) {
+			super();
+			this.time = time;
+			this.durationMillis = durationMillis;
+			this.name = name;
+			this.participants = participants;
+		}
+
+		Participant get(String team){
+			for(Participant next : participants){
+				if(next.team.equals(team)){
+					return next;
+				}
+			}
+			return null;
+		}
+	}
+
+	static class Standing {
+		final String team;
+		/** the last robot it entered */
+		String robot;
+		int battles, wins;
+		long totalScore;
+
+		Standing(String team) {
+			super();
+			this.team = team;
+		}
+	}
+
+	static class HeadToHead {
+		final String a, b;
+		int battles, winsA, winsB;
+		long scoreA, scoreB;
+
+		HeadToHead(String a, String b) {
+			super();
+			this.a = a;
+			this.b = b;
+		}
+	}
+
+	interface BattleSink {
+		void battle(BattleRecord record);
+	}
+
+	/**
+	 * One team's part of a segment: the records it's in (as offsets, in order) and its totals.
+	 */
+	private static class TeamIndex {
+		int[] offsets = new int[4];
+		int count;
+		String robot;
+		int battles, wins;
+		long totalScore;
+
+		void add(int offset, Participant p){
+			if(count==offsets.length){
+				int[] bigger = new int[offsets.length * 2];
+				System.arraycopy(offsets, 0, bigger, 0, count);
+				offsets = bigger;
+			}
+			offsets[count++] = offset;
+			robot = p.robot;
+			battles++;
+			totalScore += p.score;
+			if(p.rank==1){
+				wins++;
+			}
+		}
+	}
+
+	private static class SegmentIndex {
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+		int records;
+		final Map<String, TeamIndex> teams = new HashMap<String, TeamIndex>();
+
+		void add(int offset, BattleRecord record){
+			minTime = Math.min(minTime, record.time);
+			maxTime = Math.max(maxTime, record.time);
+			records++;
+			for(Participant next : record.participants){
+				TeamIndex team = teams.get(next.team);
+				if(team==null){
+					team = new TeamIndex();
+					teams.put(next.team, team);
+				}
+				team.add(offset, next);
+			}
+		}
+
+		boolean within(long from, long to){
+			return minTime>=from && maxTime<=to;
+		}
+
+		boolean overlaps(long from, long to){
+			return records>0 && minTime<=to && maxTime>=from;
+		}
+
+		void write(File file, long segmentSize) throws IOException {
+			File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try{
+				out.writeInt(INDEX_MAGIC);
+				out.writeLong(segmentSize);
+				out.writeLong(minTime);
+				out.writeLong(maxTime);
+				out.writeInt(records);
+				out.writeInt(teams.size());
+				for(Map.Entry<String, TeamIndex> next : teams.entrySet()){
+					TeamIndex team = next.getValue();
+					out.writeUTF(next.getKey());
+					out.writeUTF(team.robot);
+					out.writeInt(team.battles);
+					out.writeInt(team.wins);
+					out.writeLong(team.totalScore);
+					out.writeInt(team.count);
+					for(int x=0;x<team.count;x++){
+						out.writeInt(team.offsets[x]);
+					}
+				}
+			}finally{
+				out.close();
+			}
+			rename(temp, file);
+		}
+
+		/**
+		 * @return null if there's no index for a segment of this size
+		 */
+		static SegmentIndex read(File file, long segmentSize) {
+			if(!file.isFile()){
+				return null;
+			}
+			try{
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try{
+					if(in.readInt()!=INDEX_MAGIC || in.readLong()!=segmentSize){
+						return null;
+					}
+					SegmentIndex index = new SegmentIndex();
+					index.minTime = in.readLong();
+					index.maxTime = in.readLong();
+					index.records = in.readInt();
+					int teams = in.readInt();
+					for(int x=0;x<teams;x++){
+						String name = in.readUTF();
+						TeamIndex team = new TeamIndex();
+						team.robot = in.readUTF();
+						team.battles = in.readInt();
+						team.wins = in.readInt();
+						team.totalScore = in.readLong();
+						team.count = in.readInt();
+						team.offsets = new int[Math.max(1, team.count)];
+						for(int y=0;y<team.count;y++){
+							team.offsets[y] = in.readInt();
+						}
+						index.teams.put(name, team);
+					}
+					return index;
+				}finally{
+					in.close();
+				}
+			}catch(IOException e){
+				Log.warn("Ignoring unreadable results index " + file.getAbsolutePath() + ": " + e.getMessage());
+				return null;
+			}
+		}
+	}
+
+	private static class Segment {
+		final File file;
+		final long first, last;
+		SegmentIndex index;
+		boolean sealed;
+
+		Segment(File file, long first, long last) {
+			super();
+			this.file = file;
+			this.first = first;
+			this.last = last;
+		}
+
+		File indexFile(){
+			return new File(file.getParentFile(), name(first, last) + INDEX);
+		}
+
+		boolean contains(Segment other){
+			return this!=other && first<=other.first && last>=other.last && (first!=other.first || last!=other.last);
+		}
+	}
+
+	private final File dir;
+	private final long maxSegmentBytes;
+	private final long maxMergedBytes;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private final ExecutorService compactor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("results-compactor"));
+	private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+	private RandomAccessFile active;
+
+	private ResultsStore(File dir, long maxSegmentBytes, long maxMergedBytes) {
+		super();
+		this.dir = dir;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.maxMergedBytes = maxMergedBytes;
+	}
+
+	static ResultsStore open(File dir, long maxSegmentBytes, long maxMergedBytes) throws IOException {
+		FileUtils.forceMkdir(dir);
+		ResultsStore store = new ResultsStore(dir, maxSegmentBytes, maxMergedBytes);
+		store.load();
+		return store;
+	}
+
+	static ResultsStore fromSystemProperties(File dir) throws IOException {
+		return open(
+				dir,
+				Long.getLong("robokata.results.segmentKB", 1024) * 1024,
+				Long.getLong("robokata.results.mergedMB", 32) * 1024 * 1024);
+	}
+
+	private void load() throws IOException {
+		for(File next : dir.listFiles()){
+			if(next.getName().endsWith(".tmp")){
+				// a merge or an index that was never finished
+				FileUtils.deleteQuietly(next);
+			}
+		}
+
+		for(File next : dir.listFiles(suffix(SEGMENT))){
+			String[] range = next.getName().substring(0, next.getName().length() - SEGMENT.length()).split("-");
+			segments.add(new Segment(next, Long.parseLong(range[0]), Long.parseLong(range[1])));
+		}
+		// a merge that finished, but didn't get to delete what it replaced
+		List<Segment> replaced = new ArrayList<Segment>();
+		for(Segment next : segments){
+			for(Segment other : segments){
+				if(other.contains(next)){
+					replaced.add(next);
+					break;
+				}
+			}
+		}
+		for(Segment next : replaced){
+			delete(next);
+		}
+		segments.removeAll(replaced);
+		Collections.sort(segments, new Comparator<Segment>() {
+			public int compare(Segment a, Segment b) {
+				return a.first < b.first?-1:(a.first==b.first?0:1);
+			}
+		});
+
+		for(int x=0;x<segments.size();x++){
+			Segment next = segments.get(x);
+			next.index = SegmentIndex.read(next.indexFile(), next.file.length());
+			boolean newest = x==segments.size() - 1;
+			if(next.index!=null){
+				next.sealed = true;
+			}else{
+				next.index = scan(next.file, newest);
+				if(!newest || next.file.length() >= maxSegmentBytes){
+					next.index.write(next.indexFile(), next.file.length());
+					next.sealed = true;
+				}
+			}
+		}
+		for(File next : dir.listFiles(suffix(INDEX))){
+			if(!new File(dir, next.getName().replace(INDEX, SEGMENT)).isFile()){
+				FileUtils.deleteQuietly(next);
+			}
+		}
+		scheduleCompaction();
+	}
+
+	/**
+	 * Appends the battle to the newest segment, sealing it (and starting another) once it's full.
+	 */
+	public void append(BattleRecord record) throws IOException {
+		byte[] payload = encode(record);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		boolean sealed = false;
+		lock.writeLock().lock();
+		try{
+			Segment segment = activeSegment();
+			int offset = (int) active.length();
+			active.seek(offset);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 8);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(payload.length);
+			out.write(payload);
+			out.writeInt((int) crc.getValue());
+			active.write(bytes.toByteArray());
+			segment.index.add(offset, record);
+
+			if(active.length() >= maxSegmentBytes){
+				active.close();
+				active = null;
+				segment.index.write(segment.indexFile(), segment.file.length());
+				segment.sealed = true;
+				sealed = true;
+			}
+		}finally{
+			lock.writeLock().unlock();
+		}
+		if(sealed){
+			scheduleCompaction();
+		}
+	}
+
+	private Segment activeSegment() throws IOException {
+		Segment newest = segments.isEmpty()?null:segments.get(segments.size() - 1);
+		if(newest==null || newest.sealed){
+			long number = newest==null?1:newest.last + 1;
+			newest = new Segment(new File(dir, name(number, number) + SEGMENT), number, number);
+			newest.index = new SegmentIndex();
+			segments.add(newest);
+			active = new RandomAccessFile(newest.file, "rw");
+			active.setLength(0);
+			active.writeInt(SEGMENT_MAGIC);
+		}else if(active==null){
+			active = new RandomAccessFile(newest.file, "rw");
+		}
+		return newest;
+	}
+
+	/**
+	 * Every team that battled between <code>from</code> and <code>to</code> (inclusive, in
+	 * milliseconds), best total score first.
+	 */
+	public List<Standing> leaderboard(long from, long to) throws IOException {
+		Map<String, Standing> byTeam = new LinkedHashMap<String, Standing>();
+		lock.readLock().lock();
+		try{
+			for(Segment segment : segments){
+				if(!segment.index.overlaps(from, to)){
+					continue;
+				}
+				if(segment.index.within(from, to)){
+					for(Map.Entry<String, TeamIndex> next : segment.index.teams.entrySet()){
+						Standing standing = standing(byTeam, next.getKey());
+						standing.robot = next.getValue().robot;
+						standing.battles += next.getValue().battles;
+						standing.wins += next.getValue().wins;
+						standing.totalScore += next.getValue().totalScore;
+					}
+				}else{
+					for(BattleRecord record : readAll(segment)){
+						if(record.time<from || record.time>to){
+							continue;
+						}
+						for(Participant next : record.participants){
+							Standing standing = standing(byTeam, next.team);
+							standing.robot = next.robot;
+							standing.battles++;
+							standing.totalScore += next.score;
+							if(next.rank==1){
+								standing.wins++;
+							}
+						}
+					}
+				}
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+		List<Standing> standings = new ArrayList<Standing>(byTeam.values());
+		Collections.sort(standings, new Comparator<Standing>() {
+			public int compare(Standing a, Standing b) {
+				return a.totalScore==b.totalScore?b.wins - a.wins:(a.totalScore < b.totalScore?1:-1);
+			}
+		});
+		return standings;
+	}
+
+	private static Standing standing(Map<String, Standing> byTeam, String team){
+		Standing standing = byTeam.get(team);
+		if(standing==null){
+			standing = new Standing(team);
+			byTeam.put(team, standing);
+		}
+		return standing;
+	}
+
+	/**
+	 * The team's battles between <code>from</code> and <code>to</code>, oldest first.
+	 */
+	public List<BattleRecord> history(String team, long from, long to) throws IOException {
+		List<BattleRecord> battles = new ArrayList<BattleRecord>();
+		lock.readLock().lock();
+		try{
+			for(Segment segment : segments){
+				TeamIndex index = segment.index.teams.get(team);
+				if(index==null || !segment.index.overlaps(from, to)){
+					continue;
+				}
+				for(BattleRecord next : read(segment, index.offsets, index.count)){
+					if(next.time>=from && next.time<=to){
+						battles.add(next);
+					}
+				}
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+		return battles;
+	}
+
+	/**
+	 * How teams <code>a</code> and <code>b</code> did in the battles they were both in.
+	 */
+	public HeadToHead headToHead(String a, String b, long from, long to) throws IOException {
+		HeadToHead result = new HeadToHead(a, b);
+		lock.readLock().lock();
+		try{
+			for(Segment segment : segments){
+				TeamIndex ia = segment.index.teams.get(a);
+				TeamIndex ib = segment.index.teams.get(b);
+				if(ia==null || ib==null || !segment.index.overlaps(from, to)){
+					continue;
+				}
+				// both lists are in file order
+				int[] both = new int[Math.min(ia.count, ib.count)];
+				int n = 0;
+				for(int x=0, y=0;x<ia.count && y<ib.count;){
+					if(ia.offsets[x]==ib.offsets[y]){
+						both[n++] = ia.offsets[x];
+						x++;
+						y++;
+					}else if(ia.offsets[x] < ib.offsets[y]){
+						x++;
+					}else{
+						y++;
+					}
+				}
+				for(BattleRecord next : read(segment, both, n)){
+					if(next.time<from || next.time>to){
+						continue;
+					}
+					Participant pa = next.get(a);
+					Participant pb = next.get(b);
+					result.battles++;
+					result.scoreA += pa.score;
+					result.scoreB += pb.score;
+					if(pa.rank < pb.rank){
+						result.winsA++;
+					}else if(pb.rank < pa.rank){
+						result.winsB++;
+					}
+				}
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Passes on every battle between <code>from</code> and <code>to</code>, in the order they
+	 * were recorded, without holding them all in memory.
+	 */
+	public void replay(final long from, final long to, final BattleSink sink) throws IOException {
+		lock.readLock().lock();
+		try{
+			for(Segment segment : segments){
+				if(!segment.index.overlaps(from, to)){
+					continue;
+				}
+				each(segment.file, false, new RecordHandler() {
+					public void record(int offset, BattleRecord record) {
+						if(record.time>=from && record.time<=to){
+							sink.battle(record);
+						}
+					}
+				});
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Passes on every battle after the first <code>skip</code> recorded, in the order they were
+	 * recorded.  Segments wholly before them aren't read.
+	 */
+	public void replayFrom(final long skip, final BattleSink sink) throws IOException {
+		lock.readLock().lock();
+		try{
+			long seen = 0;
+			for(Segment segment : segments){
+				if(seen + segment.index.records <= skip){
+					seen += segment.index.records;
+					continue;
+				}
+				final long first = seen;
+				each(segment.file, false, new RecordHandler() {
+					long position = first;
+
+					public void record(int offset, BattleRecord record) {
+						if(position++ >= skip){
+							sink.battle(record);
+						}
+					}
+				});
+				seen += segment.index.records;
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return how many battles have been recorded
+	 */
+	public long records() {
+		lock.readLock().lock();
+		try{
+			long records = 0;
+			for(Segment next : segments){
+				records += next.index.records;
+			}
+			return records;
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	private List<BattleRecord> read(Segment segment, int[] offsets, int count) throws IOException {
+		List<BattleRecord> records = new ArrayList<BattleRecord>(count);
+		RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+		try{
+			for(int x=0;x<count;x++){
+				file.seek(offsets[x]);
+				byte[] payload = new byte[file.readInt()];
+				file.readFully(payload);
+				int expected = file.readInt();
+				records.add(decode(payload, expected, segment.file, offsets[x]));
+			}
+		}finally{
+			file.close();
+		}
+		return records;
+	}
+
+	private List<BattleRecord> readAll(Segment segment) throws IOException {
+		final List<BattleRecord> records = new ArrayList<BattleRecord>();
+		each(segment.file, false, new RecordHandler() {
+			public void record(int offset, BattleRecord record) {
+				records.add(record);
+			}
+		});
+		return records;
+	}
+
+	private interface RecordHandler {
+		void record(int offset, BattleRecord record);
+	}
+
+	/**
+	 * Reads a segment front to back to index it.
+	 *
+	 * @param repair drop a torn or corrupt tail (only ever the newest segment's) instead of failing
+	 */
+	private static SegmentIndex scan(File file, boolean repair) throws IOException {
+		final SegmentIndex index = new SegmentIndex();
+		each(file, repair, new RecordHandler() {
+			public void record(int offset, BattleRecord record) {
+				index.add(offset, record);
+			}
+		});
+		return index;
+	}
+
+	private static void each(File file, boolean repair, RecordHandler handler) throws IOException {
+		long length = file.length();
+		long good = HEADER;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try{
+			if(length<HEADER || in.readInt()!=SEGMENT_MAGIC){
+				throw new IOException(file.getAbsolutePath() + " is not a results segment");
+			}
+			while(good < length){
+				try{
+					int size = in.readInt();
+					if(size<0 || good + 8 + size > length){
+						throw new EOFException();
+					}
+					byte[] payload = new byte[size];
+					in.readFully(payload);
+					handler.record((int) good, decode(payload, in.readInt(), file, good));
+					good += 8 + size;
+				}catch(IOException e){
+					if(!repair){
+						throw e;
+					}
+					Log.warn("Dropping " + (length - good) + " unreadable bytes at the end of " + file.getAbsolutePath());
+					break;
+				}
+			}
+		}finally{
+			in.close();
+		}
+		if(good < length){
+			RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+			try{
+				truncate.setLength(good);
+			}finally{
+				truncate.close();
+			}
+		}
+	}
+
+	private static byte[] encode(BattleRecord record) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 64 * record.participants.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(record.time);
+		out.writeLong(record.durationMillis);
+		out.writeUTF(record.name);
+		out.writeShort(record.participants.size());
+		for(Participant next : record.participants){
+			out.writeUTF(next.team);
+			out.writeUTF(next.robot);
+			if(next.sha256==null){
+				out.writeByte(0);
+			}else{
+				byte[] hash = unhex(next.sha256);
+				out.writeByte(hash.length);
+				out.write(hash);
+			}
+			out.writeShort(next.rank);
+			out.writeInt(next.score);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static BattleRecord decode(byte[] payload, int expectedCrc, File file, long offset) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		if((int) crc.getValue()!=expectedCrc){
+			throw new IOException("Corrupt record at " + offset + " in " + file.getAbsolutePath());
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		long time = in.readLong();
+		long durationMillis = in.readLong();
+		String name = in.readUTF();
+		int count = in.readUnsignedShort();
+		List<Participant> participants = new ArrayList<Participant>(count);
+		for(int x=0;x<count;x++){
+			String team = in.readUTF();
+			String robot = in.readUTF();
+			byte[] hash = new byte[in.readUnsignedByte()];
+			in.readFully(hash);
+			int rank = in.readUnsignedShort();
+			int score = in.readInt();
+			participants.add(new Participant(team, robot, hash.length==0?null:RobocodeDistribution.hex(hash), rank, score));
+		}
+		return new BattleRecord(time, durationMillis, name, participants);
+	}
+
+	private void scheduleCompaction(){
+		if(compactionScheduled.compareAndSet(false, true)){
+			compactor.execute(new Runnable() {
+				public void run() {
+					compactionScheduled.set(false);
+					try{
+						while(compactOnce()){
+						}
+					}catch(IOException e){
+						Log.warn("Unable to compact the results in " + dir.getAbsolutePath() + ": " + e.getMessage());
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Merges the oldest run of small sealed segments, if there's one worth merging.  One merge
+	 * at a time, whoever asks.
+	 *
+	 * @return whether anything was merged
+	 */
+	synchronized boolean compactOnce() throws IOException {
+		List<Segment> run = new ArrayList<Segment>();
+		lock.readLock().lock();
+		try{
+			long total = 0;
+			for(Segment next : segments){
+				long size = next.file.length() - HEADER;
+				if(next.sealed && total + size <= maxMergedBytes){
+					run.add(next);
+					total += size;
+					continue;
+				}
+				if(run.size() >= MERGE_FACTOR){
+					break;
+				}
+				// too big to join the run (or still being written): start another after it
+				run.clear();
+				total = 0;
+				if(next.sealed && size <= maxMergedBytes){
+					run.add(next);
+					total = size;
+				}
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+		if(run.size() < MERGE_FACTOR){
+			return false;
+		}
+
+		// sealed segments never change, so they're copied without holding anything up
+		Segment merged = new Segment(new File(dir, name(run.get(0).first, run.get(run.size() - 1).last) + SEGMENT), run.get(0).first, run.get(run.size() - 1).last);
+		File temp = new File(dir, merged.file.getName() + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		try{
+			new DataOutputStream(out).writeInt(SEGMENT_MAGIC);
+			for(Segment next : run){
+				InputStream in = new FileInputStream(next.file);
+				try{
+					IOUtils.skip(in, HEADER);
+					IOUtils.copy(in, out);
+				}finally{
+					in.close();
+				}
+			}
+		}finally{
+			out.close();
+		}
+		merged.index = scan(temp, false);
+		merged.sealed = true;
+		merged.index.write(merged.indexFile(), temp.length());
+		rename(temp, merged.file);
+
+		lock.writeLock().lock();
+		try{
+			int at = segments.indexOf(run.get(0));
+			segments.removeAll(run);
+			segments.add(at, merged);
+			for(Segment next : run){
+				delete(next);
+			}
+		}finally{
+			lock.writeLock().unlock();
+		}
+		Log.debug("Merged " + run.size() + " results segments into " + merged.file.getName());
+		return true;
+	}
+
+	/**
+	 * Waits for a merge in progress, if any, and closes the newest segment.
+	 */
+	public void close() {
+		compactor.shutdown();
+		try{
+			compactor.awaitTermination(1, TimeUnit.MINUTES);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		lock.writeLock().lock();
+		try{
+			IOUtils.closeQuietly(active);
+			active = null;
+		}finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static String name(long first, long last){
+		return String.format("%08d-%08d", first, last);
+	}
+
+	private static void delete(Segment segment){
+		FileUtils.deleteQuietly(segment.indexFile());
+		FileUtils.deleteQuietly(segment.file);
+	}
+
+	private static FilenameFilter suffix(final String suffix){
+		return new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(suffix);
+			}
+		};
+	}
+
+	private static void rename(File from, File to) throws IOException {
+		if(!from.renameTo(to)){
+			FileUtils.deleteQuietly(to);
+			if(!from.renameTo(to)){
+				throw new IOException("Could not move " + from.getAbsolutePath() + " to " + to.getAbsolutePath());
+			}
+		}
+	}
+
+	private static byte[] unhex(String hex){
+		byte[] bytes = new byte[hex.length() / 2];
+		for(int x=0;x<bytes.length;x++){
+			bytes[x] = (byte) Integer.parseInt(hex.substring(x * 2, x * 2 + 2), 16);
+		}
+		return bytes;
+	}
+
+	/**
+	 * <pre>leaderboard [days]
+	 * history team [days]
+	 * vs teamA teamB [days]
+	 * ratings [days]</pre>
+	 * against the results in <code>-Drobokata.cache</code>.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length==0){
+			Log.info("Usage: leaderboard [days] | history team [days] | vs teamA teamB [days] | ratings [days]");
+			Log.flush();
+			System.exit(-100);
+		}
+		String command = args[0];
+		int expected = command.equals("vs")?3:(command.equals("history")?2:1);
+		long to = System.currentTimeMillis();
+		long from = args.length > expected?to - Long.parseLong(args[expected]) * 24 * 60 * 60 * 1000:Long.MIN_VALUE;
+
+		ResultsStore store = fromSystemProperties(new File(Main.cacheRoot(), "results"));
+		try{
+			if(command.equals("leaderboard")){
+				int place = 1;
+				for(Standing next : store.leaderboard(from, to)){
+					Log.info(place++ + ". " + next.team + " (" + next.robot + ")  score: " + next.totalScore + "  wins: " + next.wins + "/" + next.battles);
+				}
+			}else if(command.equals("history")){
+				for(BattleRecord next : store.history(args[1], from, to)){
+					Participant p = next.get(args[1]);
+					Log.info(new Date(next.time) + "  " + next.name + "  " + p.robot + "  rank " + p.rank + " of " + next.participants.size() + "  score " + p.score);
+				}
+			}else if(command.equals("vs")){
+				HeadToHead result = store.headToHead(args[1], args[2], from, to);
+				Log.info(result.a + " vs " + result.b + ": " + result.battles + " battles, " + result.winsA + " - " + result.winsB + " in wins, " + result.scoreA + " - " + result.scoreB + " in score");
+			}else if(command.equals("ratings")){
+				Ratings ratings = Ratings.replay(store, from, to, Ratings.Parameters.fromSystemProperties());
+				int place = 1;
+				for(Ratings.Rating next : ratings.standings()){
+					Log.info(place++ + ". " + next.team + "  rating: " + Math.round(next.rating) + "  battles: " + next.battles);
+				}
+			}else{
+				Log.info("Unknown command '" + command + "'");
+			}
+		}finally{
+			store.close();
+			Log.flush();
+		}
+	}
+}
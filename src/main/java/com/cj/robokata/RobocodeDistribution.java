@@ -0,0 +1,213 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Keeps one extracted copy of the robocode setup jar per distinct jar content, so
+ * a kata workspace can be cloned from it instead of unzipping thousands of files every run.
+ *
+ * Everything outside of {@link #PRIVATE_DIRS} is shared with the cache through hard links,
+ * so robocode must never write to those files in place.
+ */
+class RobocodeDistribution {
+	/**
+	 * Directories robocode writes to while running; each workspace gets its own copy.
+	 */
+	static final Set<String> PRIVATE_DIRS = new HashSet<String>(Arrays.asList("robots", "battles", "config"));
+
+	private static final String COMPLETE_MARKER = ".complete";
+
+	private final File cacheDir;
+	private final Unzipper unzipper;
+
+	public RobocodeDistribution(File cacheDir, Unzipper unzipper) {
+		super();
+		this.cacheDir = cacheDir;
+		this.unzipper = unzipper;
+	}
+
+	/**
+	 * @return the extracted tree for the given setup jar, extracting it first if this content hasn't been seen before
+	 */
+	public File extract(InputStream setupJar) throws IOException {
+		FileUtils.forceMkdir(cacheDir);
+
+		File temp = File.createTempFile("robocode-setup", ".jar", cacheDir);
+		try{
+			String hash = copyAndHash(setupJar, temp);
+			File extracted = new File(cacheDir, "robocode-" + hash);
+
+			if(new File(extracted, COMPLETE_MARKER).exists()){
+				Log.info("Using cached robocode distribution " + extracted.getAbsolutePath());
+			}else{
+				Log.info("Extracting robocode distribution to " + extracted.getAbsolutePath());
+				File staging = new File(cacheDir, extracted.getName() + ".staging-" + System.nanoTime());
+				try{
+					unzipper.unzip(temp, staging);
+					markLaunchScriptsExecutable(staging);
+					FileUtils.touch(new File(staging, COMPLETE_MARKER));
+
+					if(!staging.renameTo(extracted) && !new File(extracted, COMPLETE_MARKER).exists()){
+						throw new IOException("Could not move " + staging.getAbsolutePath() + " to " + extracted.getAbsolutePath());
+					}
+				}finally{
+					FileUtils.deleteQuietly(staging);
+				}
+			}
+			return extracted;
+		}finally{
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	/**
+	 * Populates <code>workspace</code> from an extracted distribution: shared files are hard linked
+	 * where the platform allows it (falling back to copies), private directories are always copied.
+	 *
+	 * @param emptied private directories the caller fills itself; they're created empty instead
+	 */
+	public void cloneInto(File extracted, File workspace, Set<String> emptied) throws IOException {
+		FileUtils.forceMkdir(workspace);
+
+		List<File> shared = new ArrayList<File>();
+		for(File next : extracted.listFiles()){
+			if(next.getName().equals(COMPLETE_MARKER)){
+				continue;
+			}else if(PRIVATE_DIRS.contains(next.getName()) && emptied.contains(next.getName())){
+				FileUtils.forceMkdir(new File(workspace, next.getName()));
+			}else if(PRIVATE_DIRS.contains(next.getName())){
+				FileUtils.copyDirectory(next, new File(workspace, next.getName()));
+			}else{
+				shared.add(next);
+			}
+		}
+
+		if(!hardLink(shared, workspace)){
+			for(File next : shared){
+				File target = new File(workspace, next.getName());
+				if(next.isDirectory()){
+					FileUtils.copyDirectory(next, target);
+				}else{
+					FileUtils.copyFile(next, target);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills <code>workspace</code> with the robots in <code>robotsDir</code>, the way
+	 * {@link #cloneInto(File, File, Set)} does the distribution: their class files are hard linked
+	 * where the platform allows it, since robocode only ever reads them, and everything else is
+	 * copied, since robots write to their data files and robocode to its robot database.
+	 */
+	static void cloneRobots(File robotsDir, File workspace) throws IOException {
+		FileUtils.forceMkdir(workspace);
+		File[] robots = robotsDir.listFiles();
+		if(robots==null){
+			throw new IOException("Unable to list " + robotsDir.getAbsolutePath());
+		}
+		if(hardLink(Arrays.asList(robots), workspace)){
+			copyAllButClasses(robotsDir, workspace);
+		}else{
+			FileUtils.copyDirectory(robotsDir, workspace);
+		}
+	}
+
+	/**
+	 * Replaces the links to anything but class files with copies.
+	 */
+	private static void copyAllButClasses(File source, File linked) throws IOException {
+		File[] contents = source.listFiles();
+		if(contents==null){
+			throw new IOException("Unable to list " + source.getAbsolutePath());
+		}
+		for(File next : contents){
+			File target = new File(linked, next.getName());
+			if(next.isDirectory()){
+				copyAllButClasses(next, target);
+			}else if(!next.getName().endsWith(".class")){
+				// deleted first: copying over it would write through the link
+				FileUtils.forceDelete(target);
+				FileUtils.copyFile(next, target);
+			}
+		}
+	}
+
+	private static boolean hardLink(List<File> sources, File workspace) {
+		if(isWindows() || sources.isEmpty()){
+			return false;
+		}
+		List<String> args = new ArrayList<String>();
+		args.add("-R");
+		args.add("-l");
+		for(File next : sources){
+			args.add(next.getAbsolutePath());
+		}
+		args.add(workspace.getAbsolutePath());
+		try{
+			new CommandRunnerImpl(workspace).run("cp", args.toArray(new String[args.size()]));
+			return true;
+		}catch(RuntimeException e){
+			Log.warn("Unable to hard link into " + workspace.getAbsolutePath() + ", copying instead");
+			for(File next : sources){
+				FileUtils.deleteQuietly(new File(workspace, next.getName()));
+			}
+			return false;
+		}
+	}
+
+	private static boolean isWindows() {
+		return System.getProperty("os.name").toLowerCase().contains("windows");
+	}
+
+	private static void markLaunchScriptsExecutable(File robocode) {
+		for(File next : robocode.listFiles()){
+			if(next.isFile() && next.getName().endsWith(".sh")){
+				next.setExecutable(true);
+			}
+		}
+	}
+
+	private static String copyAndHash(InputStream data, File dest) throws IOException {
+		MessageDigest digest = sha1();
+		DigestInputStream in = new DigestInputStream(data, digest);
+		FileOutputStream out = new FileOutputStream(dest);
+		try{
+			IOUtils.copy(in, out);
+		}finally{
+			out.close();
+			in.close();
+		}
+		return hex(digest.digest());
+	}
+
+	private static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static String hex(byte[] bytes) {
+		StringBuilder text = new StringBuilder();
+		for(byte next : bytes){
+			text.append(Character.forDigit((next >> 4) & 0xF, 16));
+			text.append(Character.forDigit(next & 0xF, 16));
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,73 @@
+package com.cj.robokata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.cj.robokata.Tournament.Score;
+
+/**
+ * Follows what robocode prints while a battle runs: which round it's on and, once the table of
+ * results turns up (on the console, or in the <code>-results</code> file), each robot's score.
+ * Fed one line at a time, so it can watch a battle live through a {@link LineSplitter}; a
+ * {@link Listener} that wants to stop a battle early can cancel the command from its callbacks.
+ */
+class RobocodeOutput implements LineSink {
+	/** e.g. <pre>Round 2 initializing..</pre> */
+	private static final Pattern ROUND_LINE = Pattern.compile("^Round (\\d+) initializing.*");
+	/** e.g. <pre>1st: sample.Walls*	1079 (34%)	450	...</pre> */
+	private static final Pattern RESULT_LINE = Pattern.compile("^(\\d+)\\S*:\\s+(.+?)\\s+(\\d+)\\s+\\(.*");
+
+	interface Listener {
+		void roundStarted(int round);
+
+		void scored(Score score);
+	}
+
+	private final Listener listener;
+	private final List<Score> scores = new ArrayList<Score>();
+	private volatile int round = 0;
+
+	/**
+	 * @param listener told about each round and score as they turn up, or null
+	 */
+	public RobocodeOutput(Listener listener) {
+		super();
+		this.listener = listener;
+	}
+
+	public void line(String line) {
+		Matcher m = ROUND_LINE.matcher(line);
+		if(m.matches()){
+			round = Integer.parseInt(m.group(1));
+			if(listener!=null){
+				listener.roundStarted(round);
+			}
+			return;
+		}
+		m = RESULT_LINE.matcher(line);
+		if(m.matches()){
+			Score score = new Score(Integer.parseInt(m.group(1)), Tournament.robotName(m.group(2)), Integer.parseInt(m.group(3)));
+			synchronized (scores) {
+				scores.add(score);
+			}
+			if(listener!=null){
+				listener.scored(score);
+			}
+		}
+	}
+
+	/**
+	 * @return the round being fought (from 1), or 0 before the first one starts
+	 */
+	public int round() {
+		return round;
+	}
+
+	public List<Score> scores() {
+		synchronized (scores) {
+			return new ArrayList<Score>(scores);
+		}
+	}
+}
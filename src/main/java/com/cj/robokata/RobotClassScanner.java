@@ -0,0 +1,210 @@
+package com.cj.robokata;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+import robocode.Robot;
+
+/**
+ * Finds the robots in a contestant jar by reading class file headers instead of loading
+ * the classes, so none of the contestant's code (static initializers included) runs in the runner.
+ *
+ * Each class's super class is read from its constant pool and the chain is followed through
+ * the jar.  Once the chain leaves the jar, the remaining super class has to be one of ours
+ * (robocode or the JDK), and is checked against {@link Robot} without being initialized.
+ * As with a parent-first class loader, our classes win over copies of them in the jar (a jar
+ * built with robocode bundled in, say): those copies are neither followed nor robots.
+ */
+class RobotClassScanner {
+	private static final int ACC_INTERFACE = 0x0200;
+	private static final int ACC_ABSTRACT = 0x0400;
+
+	/** the names looked up come from contestants' jars, so only so many answers are kept */
+	private static final int MAX_KNOWN_TYPES = 4096;
+
+	private static final Map<String, Boolean> EXTERNAL_ROBOT_TYPES = lru(MAX_KNOWN_TYPES);
+	private static final Map<String, Boolean> RUNNER_CLASSES = lru(MAX_KNOWN_TYPES);
+
+	static class ClassHeader {
+		final String name;
+		final String superName;
+		final int access;
+
+		ClassHeader(String name, String superName, int access) {
+			super();
+			this.name = name;
+			this.superName = superName;
+			this.access = access;
+		}
+
+		boolean isConcreteClass(){
+			return (access & (ACC_INTERFACE|ACC_ABSTRACT))==0;
+		}
+	}
+
+	private final Map<String, ClassHeader> classes = new LinkedHashMap<String, ClassHeader>();
+
+	public static List<String> scan(File jar) throws IOException {
+		RobotClassScanner scanner = new RobotClassScanner();
+		ZipFile zip = new ZipFile(jar);
+		try{
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while(entries.hasMoreElements()){
+				ZipEntry next = entries.nextElement();
+				if(next.getName().endsWith(".class")){
+					InputStream in = zip.getInputStream(next);
+					try{
+						scanner.add(IOUtils.toByteArray(in));
+					}finally{
+						in.close();
+					}
+				}
+			}
+		}finally{
+			zip.close();
+		}
+		return scanner.robotClasses();
+	}
+
+	public void add(byte[] classFile) throws IOException {
+		ClassHeader header = readHeader(classFile);
+		classes.put(header.name, header);
+	}
+
+	/**
+	 * @return binary names (<code>foo.Bar</code>) of the concrete robots, in the order they were added
+	 */
+	public List<String> robotClasses(){
+		List<String> robots = new ArrayList<String>();
+		for(ClassHeader next : classes.values()){
+			if(next.isConcreteClass() && !isRunnerClass(next.name) && extendsRobot(next)){
+				robots.add(next.name.replace('/', '.'));
+			}
+		}
+		return robots;
+	}
+
+	private boolean extendsRobot(ClassHeader c){
+		Set<String> seen = new HashSet<String>();
+		String superName = c.superName;
+		while(superName!=null && seen.add(superName)){
+			ClassHeader parent = isRunnerClass(superName)?null:classes.get(superName);
+			if(parent==null){
+				return isExternalRobotType(superName);
+			}
+			superName = parent.superName;
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether the class is on the runner's own class path, and so is never the jar's
+	 */
+	private static boolean isRunnerClass(String internalName){
+		Boolean known = RUNNER_CLASSES.get(internalName);
+		if(known==null){
+			known = RobotClassScanner.class.getClassLoader().getResource(internalName + ".class")!=null;
+			RUNNER_CLASSES.put(internalName, known);
+		}
+		return known;
+	}
+
+	private static boolean isExternalRobotType(String internalName){
+		Boolean known = EXTERNAL_ROBOT_TYPES.get(internalName);
+		if(known==null){
+			try {
+				Class<?> c = Class.forName(internalName.replace('/', '.'), false, RobotClassScanner.class.getClassLoader());
+				known = Robot.class.isAssignableFrom(c);
+			} catch (ClassNotFoundException e) {
+				known = false;
+			} catch (LinkageError e) {
+				known = false;
+			}
+			EXTERNAL_ROBOT_TYPES.put(internalName, known);
+		}
+		return known;
+	}
+
+	private static Map<String, Boolean> lru(final int maxEntries){
+		return Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > maxEntries;
+			}
+		});
+	}
+
+	/**
+	 * Reads just enough of a class file to know its name, access flags and super class.
+	 */
+	static ClassHeader readHeader(byte[] classFile) throws IOException {
+		try{
+			return parseHeader(classFile);
+		}catch(IndexOutOfBoundsException e){
+			throw new IOException("Truncated or corrupt class file", e);
+		}
+	}
+
+	private static ClassHeader parseHeader(byte[] classFile) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+		if(in.readInt()!=0xCAFEBABE){
+			throw new IOException("Not a class file");
+		}
+		in.readUnsignedShort();// minor
+		in.readUnsignedShort();// major
+
+		int count = in.readUnsignedShort();
+		int[] offsets = new int[count];
+		int[] classNameIndexes = new int[count];
+		int position = 10;
+		for(int x=1;x<count;x++){
+			int tag = classFile[position] & 0xFF;
+			offsets[x] = position + 1;
+			switch(tag){
+				case 1: position += 3 + (((classFile[position + 1] & 0xFF) << 8) | (classFile[position + 2] & 0xFF)); break;
+				case 7: classNameIndexes[x] = ((classFile[position + 1] & 0xFF) << 8) | (classFile[position + 2] & 0xFF);
+				        position += 3; break;
+				case 8: case 16: case 19: case 20: position += 3; break;
+				case 15: position += 4; break;
+				case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: position += 5; break;
+				case 5: case 6: position += 9; x++; break;
+				default: throw new IOException("Unknown constant pool tag " + tag + " at " + position);
+			}
+		}
+
+		in = new DataInputStream(new ByteArrayInputStream(classFile, position, classFile.length - position));
+		int access = in.readUnsignedShort();
+		int thisClass = in.readUnsignedShort();
+		int superClass = in.readUnsignedShort();
+
+		return new ClassHeader(
+					className(classFile, offsets, classNameIndexes, thisClass),
+					superClass==0?null:className(classFile, offsets, classNameIndexes, superClass),
+					access);
+	}
+
+	private static String className(byte[] classFile, int[] offsets, int[] classNameIndexes, int classIndex) throws IOException {
+		int utf8 = classNameIndexes[classIndex];
+		if(utf8==0){
+			throw new IOException("Constant pool entry " + classIndex + " is not a class");
+		}
+		return new DataInputStream(new ByteArrayInputStream(classFile, offsets[utf8], classFile.length - offsets[utf8])).readUTF();
+	}
+}
@@ -0,0 +1,146 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The robots found in every jar that qualified, by the jar's SHA-256, so a jar is scanned once
+ * however many jobs publish it, in this kata and the ones after it.  Each is kept with the
+ * {@link ContestantValidator.Limits} it qualified under, and only counts while those are the
+ * limits; jars that didn't qualify aren't remembered at all.
+ *
+ * Keeps the <code>maxEntries</code> most recently used (each saved with when it was last used,
+ * so the order survives from one run to the next); safe to use from several threads.
+ */
+class ScanCache {
+	static final String FILE_NAME = "scans.properties";
+
+	private static class Scan {
+		final String limits;
+		final List<String> robots;
+		long lastUsed;
+
+		Scan(String limits, List<String> robots, long lastUsed) {
+			super();
+			this.limits = limits;
+			this.robots = robots;
+			this.lastUsed = lastUsed;
+		}
+
+		static Scan parse(String text){
+			String[] parts = text.split(" ", 3);
+			return new Scan(parts[1], Arrays.asList(parts[2].split(",")), Long.parseLong(parts[0]));
+		}
+
+		String format(){
+			StringBuilder robotList = new StringBuilder();
+			for(String next : robots){
+				robotList.append(robotList.length()==0?"":",").append(next);
+			}
+			return lastUsed + " " + limits + " " + robotList;
+		}
+	}
+
+	private final File file;
+	private final Map<String, Scan> scansByHash;
+	private boolean changed = false;
+
+	private ScanCache(File file, final int maxEntries) {
+		super();
+		this.file = file;
+		this.scansByHash = new LinkedHashMap<String, Scan>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Scan> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	static ScanCache load(File dir, int maxEntries) throws IOException {
+		ScanCache cache = new ScanCache(new File(dir, FILE_NAME), maxEntries);
+		if(cache.file.isFile()){
+			Properties props = new Properties();
+			InputStream in = new FileInputStream(cache.file);
+			try{
+				props.load(in);
+			}finally{
+				in.close();
+			}
+			List<Map.Entry<String, Scan>> scans = new ArrayList<Map.Entry<String, Scan>>();
+			for(String hash : props.stringPropertyNames()){
+				try{
+					scans.add(new AbstractMap.SimpleEntry<String, Scan>(hash, Scan.parse(props.getProperty(hash))));
+				}catch(RuntimeException e){
+					Log.debug("Ignoring unreadable scan of " + hash + ": " + props.getProperty(hash));
+				}
+			}
+			// least recently used first, so they're the first to go
+			Collections.sort(scans, new Comparator<Map.Entry<String, Scan>>() {
+				public int compare(Map.Entry<String, Scan> a, Map.Entry<String, Scan> b) {
+					return a.getValue().lastUsed < b.getValue().lastUsed?-1:(a.getValue().lastUsed==b.getValue().lastUsed?0:1);
+				}
+			});
+			for(Map.Entry<String, Scan> next : scans){
+				cache.scansByHash.put(next.getKey(), next.getValue());
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * @return the robots in the jar with this SHA-256, or null if it hasn't qualified under these limits
+	 */
+	synchronized List<String> get(String sha256, ContestantValidator.Limits limits){
+		Scan known = scansByHash.get(sha256);
+		if(known==null || !known.limits.equals(limits.fingerprint())){
+			return null;
+		}
+		known.lastUsed = System.currentTimeMillis();
+		changed = true;
+		return known.robots;
+	}
+
+	synchronized void put(String sha256, ContestantValidator.Limits limits, List<String> robots){
+		scansByHash.put(sha256, new Scan(limits.fingerprint(), new ArrayList<String>(robots), System.currentTimeMillis()));
+		changed = true;
+	}
+
+	synchronized void save() throws IOException {
+		if(!changed){
+			return;
+		}
+		Properties props = new Properties();
+		for(Map.Entry<String, Scan> next : scansByHash.entrySet()){
+			props.setProperty(next.getKey(), next.getValue().format());
+		}
+		FileUtils.forceMkdir(file.getParentFile());
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try{
+			props.store(out, "robokata scans: sha256 = lastUsed limits robots");
+		}finally{
+			out.close();
+		}
+		if(!temp.renameTo(file)){
+			FileUtils.copyFile(temp, file);
+			FileUtils.deleteQuietly(temp);
+		}
+		changed = false;
+	}
+}
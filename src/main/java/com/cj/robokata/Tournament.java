@@ -0,0 +1,212 @@
+package com.cj.robokata;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.cj.robokata.Main.RobotEntry;
+
+/**
+ * Splits the contestants into many small battles, runs them side by side through a
+ * {@link BattleRunner}, then adds up the scores.
+ */
+class Tournament {
+	static class Battle {
+		final String name;
+		final List<RobotEntry> robots;
+
+		Battle(String name, List<RobotEntry> robots) {
+			super();
+			this.name = name;
+			this.robots = robots;
+		}
+	}
+
+	static class Score {
+		final int rank;
+		final String robot;
+		final int total;
+
+		Score(int rank, String robot, int total) {
+			super();
+			this.rank = rank;
+			this.robot = robot;
+			this.total = total;
+		}
+	}
+
+	static class BattleResult {
+		final Battle battle;
+		final List<Score> scores;
+		final Exception error;
+		/** when the battle finished */
+		final long finished;
+		final long durationMillis;
+
+		BattleResult(Battle battle, List<Score> scores, Exception error, long started) {
+			super();
+			this.battle = battle;
+			this.scores = scores;
+			this.error = error;
+			this.finished = System.currentTimeMillis();
+			this.durationMillis = finished - started;
+		}
+	}
+
+	static class Standing {
+		final String robot;
+		int battles, wins;
+		long totalScore;
+
+		Standing(String robot) {
+			super();
+			this.robot = robot;
+		}
+	}
+
+	private final BattleRunner runner;
+	private final int workers;
+
+	public Tournament(BattleRunner runner, int workers) {
+		super();
+		this.runner = runner;
+		this.workers = workers;
+	}
+
+	/**
+	 * Every contestant meets every other contestant once.
+	 */
+	static List<Battle> roundRobin(List<RobotEntry> contestants){
+		List<Battle> battles = new ArrayList<Battle>();
+		for(int a=0;a<contestants.size();a++){
+			for(int b=a+1;b<contestants.size();b++){
+				List<RobotEntry> pair = new ArrayList<RobotEntry>();
+				pair.add(contestants.get(a));
+				pair.add(contestants.get(b));
+				battles.add(new Battle("pair-" + (battles.size() + 1), pair));
+			}
+		}
+		return battles;
+	}
+
+	/**
+	 * Splits the contestants into melees of at most <code>size</code> robots.
+	 */
+	static List<Battle> groups(List<RobotEntry> contestants, int size){
+		if(size<2){
+			throw new IllegalArgumentException("A melee needs room for at least 2 robots, not " + size);
+		}
+		List<Battle> battles = new ArrayList<Battle>();
+		int count = (contestants.size() + size - 1) / size;
+		for(int x=0;x<count;x++){
+			battles.add(new Battle("group-" + (x + 1), new ArrayList<RobotEntry>()));
+		}
+		for(int x=0;x<contestants.size();x++){
+			battles.get(x % count).robots.add(contestants.get(x));
+		}
+		return battles;
+	}
+
+	/**
+	 * One robocode JVM per core, as long as each one still gets <code>battleMemoryMB</code> of physical memory.
+	 */
+	static int defaultWorkers(int battleMemoryMB){
+		int workers = Runtime.getRuntime().availableProcessors();
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if(os instanceof com.sun.management.OperatingSystemMXBean){
+			long physicalMB = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize() / (1024 * 1024);
+			workers = (int) Math.min(workers, physicalMB / battleMemoryMB);
+		}
+		return Math.max(1, workers);
+	}
+
+	public List<BattleResult> run(List<Battle> battles) {
+		Log.info("Running " + battles.size() + " battles, " + workers + " at a time");
+		ExecutorService pool = Executors.newFixedThreadPool(workers, new DaemonThreadFactory("battle"));
+		try{
+			List<Future<BattleResult>> running = new ArrayList<Future<BattleResult>>();
+			for(final Battle next : battles){
+				running.add(pool.submit(new Callable<BattleResult>() {
+					public BattleResult call() {
+						long started = System.currentTimeMillis();
+						try {
+							return new BattleResult(next, runner.fight(next), null, started);
+						} catch (Exception e) {
+							Log.warn("Battle " + next.name + " failed: " + e.getMessage());
+							return new BattleResult(next, null, e, started);
+						}
+					}
+				}));
+			}
+
+			List<BattleResult> results = new ArrayList<BattleResult>();
+			for(Future<BattleResult> next : running){
+				results.add(next.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Robots that aren't packaged show up as <code>foo.Bar*</code>.
+	 */
+	static String robotName(String name){
+		return name.endsWith("*")?name.substring(0, name.length() - 1):name;
+	}
+
+	static List<Standing> standings(List<BattleResult> results){
+		Map<String, Standing> byRobot = new LinkedHashMap<String, Standing>();
+		for(BattleResult next : results){
+			if(next.error!=null){
+				continue;
+			}
+			for(Score score : next.scores){
+				Standing standing = byRobot.get(score.robot);
+				if(standing==null){
+					standing = new Standing(score.robot);
+					byRobot.put(score.robot, standing);
+				}
+				standing.battles++;
+				standing.totalScore += score.total;
+				if(score.rank==1){
+					standing.wins++;
+				}
+			}
+		}
+		List<Standing> standings = new ArrayList<Standing>(byRobot.values());
+		Collections.sort(standings, new Comparator<Standing>() {
+			public int compare(Standing a, Standing b) {
+				return a.totalScore==b.totalScore?b.wins - a.wins:(a.totalScore < b.totalScore?1:-1);
+			}
+		});
+		return standings;
+	}
+
+	static void printStandings(List<BattleResult> results){
+		int failed = 0;
+		for(BattleResult next : results){
+			if(next.error!=null) failed++;
+		}
+		Log.info("Tournament results (" + (results.size() - failed) + " battles, " + failed + " failed):");
+		int place = 1;
+		for(Standing next : standings(results)){
+			Log.info(place++ + ". " + next.robot + "  score: " + next.totalScore + "  wins: " + next.wins + "/" + next.battles);
+		}
+	}
+}
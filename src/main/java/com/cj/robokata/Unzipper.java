@@ -0,0 +1,213 @@
+package com.cj.robokata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Extracts zip/jar files, spreading the file entries of one archive across a thread pool.
+ *
+ * All directories are created up front, parents first, so entries can be written in any
+ * order (and archives that list a file before its directory still work).  Entries whose
+ * name would land outside of the destination ("zip slip") fail the whole archive.
+ */
+class Unzipper {
+	private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+	private final ExecutorService pool;
+	private final boolean skipIdentical;
+
+	/**
+	 * @param skipIdentical leave files alone when they already exist with the entry's size and CRC
+	 */
+	public Unzipper(ExecutorService pool, boolean skipIdentical) {
+		super();
+		this.pool = pool;
+		this.skipIdentical = skipIdentical;
+	}
+
+	public void unzip(File archive, final File dest) throws IOException {
+		Metrics.Timer timer = Metrics.start("unzip", "archive", archive.getName());
+		final ZipFile z = new ZipFile(archive);
+		try{
+			String root = dest.getCanonicalPath() + File.separator;
+			Set<File> dirs = new LinkedHashSet<File>();
+			List<ZipEntry> files = new ArrayList<ZipEntry>();
+
+			Enumeration<? extends ZipEntry> entries = z.entries();
+			while(entries.hasMoreElements()){
+				ZipEntry next = entries.nextElement();
+				File x = new File(dest, next.getName());
+
+				if(next.getName().isEmpty()){
+					Log.warn("[UNZIP] Zip entry has empty name ... wierd ... ignoring it :'( .");
+				}else if(!(x.getCanonicalPath() + File.separator).startsWith(root)){
+					throw new IOException("Zip entry " + next.getName() + " in " + archive.getAbsolutePath() + " points outside of " + dest.getAbsolutePath());
+				}else if(next.isDirectory()){
+					dirs.add(x);
+				}else{
+					dirs.add(x.getParentFile());
+					files.add(next);
+				}
+			}
+
+			mkdirsInOrder(dirs);
+
+			List<Future<Boolean>> writes = new ArrayList<Future<Boolean>>();
+			for(final ZipEntry next : files){
+				writes.add(pool.submit(new Callable<Boolean>() {
+					public Boolean call() throws IOException {
+						return extract(z, next, new File(dest, next.getName()));
+					}
+				}));
+			}
+
+			int unchanged = 0;
+			IOException failure = null;
+			for(Future<Boolean> next : writes){
+				try{
+					if(!waitFor(next)){
+						unchanged++;
+					}
+				}catch(IOException e){
+					if(failure==null) failure = e;
+				}
+			}
+			if(failure!=null){
+				throw failure;
+			}
+
+			Metrics.count("unzip_files", files.size() - unchanged, "archive", archive.getName(), "result", "written");
+			Metrics.count("unzip_files", unchanged, "archive", archive.getName(), "result", "unchanged");
+			Log.info("[UNZIP] " + archive.getName() + ": " + files.size() + " files (" + unchanged + " unchanged) to " + dest.getAbsolutePath());
+		}finally{
+			z.close();
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Deletes the files that {@link #unzip(File, File)} would write from <code>archive</code> (directories are left alone),
+	 * except those in <code>keep</code>.
+	 */
+	public void remove(File archive, File dest, Set<String> keep) throws IOException {
+		ZipFile z = new ZipFile(archive);
+		try{
+			String root = dest.getCanonicalPath() + File.separator;
+			Enumeration<? extends ZipEntry> entries = z.entries();
+			while(entries.hasMoreElements()){
+				ZipEntry next = entries.nextElement();
+				File x = new File(dest, next.getName());
+				if(!next.isDirectory() && next.getName().length()>0 && !keep.contains(next.getName()) && (x.getCanonicalPath() + File.separator).startsWith(root)){
+					x.delete();
+				}
+			}
+		}finally{
+			z.close();
+		}
+	}
+
+	private void mkdirsInOrder(Set<File> dirs) {
+		List<File> ordered = new ArrayList<File>(dirs);
+		Collections.sort(ordered, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return a.getPath().length() - b.getPath().length();
+			}
+		});
+		for(File next : ordered){
+			if(!next.isDirectory() && !next.mkdirs() && !next.isDirectory()){
+				throw new RuntimeException("Could not create directory " + next.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * @return false when the file was already there and identical
+	 */
+	private boolean extract(ZipFile z, ZipEntry entry, File x) throws IOException {
+		if(skipIdentical && isIdentical(entry, x)){
+			return false;
+		}
+
+		if(Log.isDebugEnabled()){
+			Log.debug("[UNZIP] " + entry.getName() + " to " + x.getAbsolutePath());
+		}
+
+		ReadableByteChannel in = Channels.newChannel(z.getInputStream(entry));
+		FileOutputStream out = new FileOutputStream(x);
+		try{
+			FileChannel channel = out.getChannel();
+			// never more than the entry claims: that's what the jar was sized up by
+			long limit = entry.getSize()<0?Long.MAX_VALUE:entry.getSize() + 1;
+			long position = 0;
+			while(position < limit){
+				long n = channel.transferFrom(in, position, Math.min(TRANSFER_CHUNK, limit - position));
+				if(n<=0){
+					break;
+				}
+				position += n;
+			}
+			if(entry.getSize()>=0 && position > entry.getSize()){
+				throw new IOException("Zip entry " + entry.getName() + " inflates to more than the " + entry.getSize() + " bytes it claims");
+			}
+		}finally{
+			in.close();
+			out.close();
+		}
+		if(entry.getTime()!=-1){
+			x.setLastModified(entry.getTime());
+		}
+		return true;
+	}
+
+	private static boolean isIdentical(ZipEntry entry, File x) throws IOException {
+		if(!x.isFile() || entry.getSize()!=x.length() || entry.getCrc()==-1){
+			return false;
+		}
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(x);
+		try{
+			byte[] buffer = new byte[64 * 1024];
+			for(int n = in.read(buffer);n!=-1;n = in.read(buffer)){
+				crc.update(buffer, 0, n);
+			}
+		}finally{
+			IOUtils.closeQuietly(in);
+		}
+		return crc.getValue()==entry.getCrc();
+	}
+
+	private static boolean waitFor(Future<Boolean> write) throws IOException {
+		try {
+			return write.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.cj.robokata;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Thin walker over a StAX pull parser for the shallow documents the Jenkins remote API
+ * returns.  Nothing is kept in memory beyond the element the cursor is on, so a
+ * multi-megabyte /api/xml costs no more heap than a small one.
+ *
+ * The cursor always sits on an element.  {@link #nextChild()} moves into/across the children
+ * of the element it is in, and each child must be consumed with {@link #text()} or {@link #skip()}
+ * (or by walking its own children) before asking for the next one.
+ */
+class XmlCursor {
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+	static {
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+	}
+
+	private final InputStream in;
+	private final XMLStreamReader xml;
+
+	/**
+	 * Positions the cursor on the root element of the document.  The stream is closed along with the cursor.
+	 */
+	public XmlCursor(InputStream in) {
+		super();
+		this.in = in;
+		try {
+			synchronized (FACTORY) {
+				this.xml = FACTORY.createXMLStreamReader(in);
+			}
+			while(xml.getEventType()!=XMLStreamConstants.START_ELEMENT){
+				xml.next();
+			}
+		} catch (XMLStreamException e) {
+			IOUtils.closeQuietly(in);
+			throw new RuntimeException(e);
+		}
+	}
+
+	public String name(){
+		return xml.getLocalName();
+	}
+
+	/**
+	 * @return true when positioned on the next child element, false when the enclosing element has ended
+	 */
+	public boolean nextChild(){
+		try {
+			while(xml.hasNext()){
+				int event = xml.next();
+				if(event==XMLStreamConstants.START_ELEMENT){
+					return true;
+				}else if(event==XMLStreamConstants.END_ELEMENT){
+					return false;
+				}
+			}
+			return false;
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The direct text content of the current element; nested elements are skipped.
+	 */
+	public String text(){
+		try {
+			StringBuilder text = new StringBuilder();
+			int depth = 0;
+			while(true){
+				int event = xml.next();
+				if(event==XMLStreamConstants.START_ELEMENT){
+					depth++;
+				}else if(event==XMLStreamConstants.END_ELEMENT){
+					if(depth==0){
+						return text.toString();
+					}
+					depth--;
+				}else if(depth==0 && (event==XMLStreamConstants.CHARACTERS || event==XMLStreamConstants.CDATA || event==XMLStreamConstants.SPACE)){
+					text.append(xml.getText());
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void skip(){
+		while(nextChild()){
+			skip();
+		}
+	}
+
+	public void close(){
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+}
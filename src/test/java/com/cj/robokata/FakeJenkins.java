@@ -0,0 +1,74 @@
+package com.cj.robokata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Jenkins' remote API on a local port.  Each request gets the next of the bodies it was given,
+ * and once they run out, the last one again.
+ */
+class FakeJenkins {
+	/** path and query of each request, decoded */
+	final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> bodies;
+	private final HttpServer server;
+
+	FakeJenkins(String... bodies) throws IOException {
+		this.bodies = new ArrayList<String>(Arrays.asList(bodies));
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.add(URLDecoder.decode(exchange.getRequestURI().getRawPath() + "?" + exchange.getRequestURI().getRawQuery(), "UTF-8"));
+				byte[] body = next().getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/xml");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+	}
+
+	private synchronized String next(){
+		return bodies.size()>1?bodies.remove(0):bodies.get(0);
+	}
+
+	String url(){
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	void stop(){
+		server.stop(0);
+	}
+
+	/**
+	 * The job list, as <code>/api/xml?tree=jobs[...]</code> has it.
+	 */
+	static String jobs(String... jobs){
+		StringBuilder xml = new StringBuilder("<hudson>");
+		for(String next : jobs){
+			xml.append(next);
+		}
+		return xml.append("</hudson>").toString();
+	}
+
+	/**
+	 * @param lastBuild or null for a job that's never been built
+	 */
+	static String job(String name, String color, Integer lastBuild){
+		return "<job><name>" + name + "</name><color>" + color + "</color>"
+				+ (lastBuild==null?"":"<lastBuild><number>" + lastBuild + "</number></lastBuild>")
+				+ "</job>";
+	}
+}
@@ -0,0 +1,171 @@
+package com.cj.robokata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarInspectorTest {
+	private static final int MAX_JAR_BYTES = 1024 * 1024;
+	private static final int MAX_ENTRIES = 100;
+	private static final byte[] CONTENT = "class file, or near enough".getBytes();
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void readsWhatTheJarHolds() throws IOException {
+		JarInspector inspector = JarInspector.open(write(jar()), MAX_JAR_BYTES, MAX_ENTRIES);
+		try{
+			assertEquals(1, inspector.entries().size());
+			JarInspector.Entry entry = inspector.entries().get(0);
+			assertEquals("a/Bot.class", entry.name);
+			assertEquals(CONTENT.length, inspector.totalSize());
+			assertArrayEquals(CONTENT, inspector.read(entry));
+		}finally{
+			inspector.close();
+		}
+	}
+
+	@Test
+	public void rejectsATruncatedEndOfCentralDirectory() throws IOException {
+		byte[] jar = jar();
+		assertUnopenable(Arrays.copyOf(jar, jar.length - 10), "not a jar");
+	}
+
+	@Test
+	public void rejectsACentralDirectoryOutsideOfTheFile() throws IOException {
+		byte[] jar = jar();
+		bytes(jar).putInt(endOfCentralDirectory(jar) + 16, jar.length);
+		assertUnopenable(jar, "outside of the file");
+	}
+
+	@Test
+	public void rejectsAnEntryOutsideOfTheFile() throws IOException {
+		byte[] jar = jar();
+		bytes(jar).putInt(centralHeader(jar) + 42, jar.length);
+		assertUnopenable(jar, "lies outside of the file");
+	}
+
+	@Test
+	public void rejectsANameRunningPastTheEndOfTheFile() throws IOException {
+		byte[] jar = jar();
+		bytes(jar).putShort(centralHeader(jar) + 28, (short) 0xFFFF);
+		assertUnopenable(jar, "truncated or corrupt");
+	}
+
+	@Test
+	public void rejectsEntryDataRunningPastTheEndOfTheFile() throws IOException {
+		byte[] jar = jar();
+		ByteBuffer bytes = bytes(jar);
+		// the local header's at the start; push the data to the file's last byte
+		int nameLength = bytes.getShort(26) & 0xFFFF;
+		bytes.putShort(28, (short) (jar.length - 1 - 30 - nameLength));
+		assertUnreadable(jar, "lies outside of the file");
+	}
+
+	@Test
+	public void rejectsEncryptedEntries() throws IOException {
+		byte[] jar = jar();
+		ByteBuffer bytes = bytes(jar);
+		int flags = centralHeader(jar) + 8;
+		bytes.putShort(flags, (short) (bytes.getShort(flags) | 1));
+		assertUnopenable(jar, "is encrypted");
+	}
+
+	@Test
+	public void rejectsZip64Entries() throws IOException {
+		byte[] jar = jar();
+		bytes(jar).putInt(centralHeader(jar) + 24, 0xFFFFFFFF);
+		assertUnopenable(jar, "zip64");
+	}
+
+	@Test
+	public void rejectsZip64Archives() throws IOException {
+		byte[] jar = jar();
+		bytes(jar).putShort(endOfCentralDirectory(jar) + 10, (short) 0xFFFF);
+		assertUnopenable(jar, "zip64");
+	}
+
+	@Test
+	public void wontInflateAnEntryPastTheSizeItClaims() throws IOException {
+		byte[] jar = jar();
+		bytes(jar).putInt(centralHeader(jar) + 24, CONTENT.length - 1);
+		assertUnreadable(jar, "doesn't inflate to the " + (CONTENT.length - 1) + " bytes it claims");
+	}
+
+	@Test
+	public void checksEachEntrysCrc() throws IOException {
+		byte[] jar = jar();
+		ByteBuffer bytes = bytes(jar);
+		int crc = centralHeader(jar) + 16;
+		bytes.putInt(crc, bytes.getInt(crc) ^ 1);
+		assertUnreadable(jar, "fails its CRC check");
+	}
+
+	private static byte[] jar() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bytes);
+		zip.putNextEntry(new ZipEntry("a/Bot.class"));
+		zip.write(CONTENT);
+		zip.closeEntry();
+		zip.close();
+		return bytes.toByteArray();
+	}
+
+	private static ByteBuffer bytes(byte[] jar){
+		return ByteBuffer.wrap(jar).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * The jars written here have no comment, so it's the last 22 bytes.
+	 */
+	private static int endOfCentralDirectory(byte[] jar){
+		return jar.length - 22;
+	}
+
+	private static int centralHeader(byte[] jar){
+		return bytes(jar).getInt(endOfCentralDirectory(jar) + 16);
+	}
+
+	private File write(byte[] jar) throws IOException {
+		File file = temp.newFile();
+		FileUtils.writeByteArrayToFile(file, jar);
+		return file;
+	}
+
+	private void assertUnopenable(byte[] jar, String reason) throws IOException {
+		try{
+			JarInspector.open(write(jar), MAX_JAR_BYTES, MAX_ENTRIES).close();
+			fail("Opened a jar that " + reason);
+		}catch(IOException e){
+			assertTrue(e.getMessage(), e.getMessage().contains(reason));
+		}
+	}
+
+	private void assertUnreadable(byte[] jar, String reason) throws IOException {
+		JarInspector inspector = JarInspector.open(write(jar), MAX_JAR_BYTES, MAX_ENTRIES);
+		try{
+			inspector.read(inspector.entries().get(0));
+			fail("Read an entry that " + reason);
+		}catch(IOException e){
+			assertTrue(e.getMessage(), e.getMessage().contains(reason));
+		}finally{
+			inspector.close();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.cj.robokata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JenkinsToolTest {
+	private static final String JOBS =
+			"<hudson>" +
+			"<job><name>robokata-alice</name><color>blue</color>" +
+			"<lastBuild><number>7</number>" +
+			"<artifact><fileName>robot.jar</fileName><relativePath>target/robot.jar</relativePath></artifact>" +
+			"<culprit><absoluteUrl>http://jenkins/user/alice</absoluteUrl><fullName>Alice</fullName></culprit>" +
+			"</lastBuild></job>" +
+			"<job><name>other-job</name><color>red</color><lastBuild><number>3</number></lastBuild></job>" +
+			"<job><name>robokata-bob</name><color>notbuilt</color></job>" +
+			"<primaryView><name>All</name></primaryView>" +
+			"</hudson>";
+
+	private FakeJenkins server;
+
+	@Before
+	public void startJenkins() throws IOException {
+		server = new FakeJenkins(JOBS);
+	}
+
+	@After
+	public void stopJenkins() {
+		server.stop();
+	}
+
+	private JenkinsTool jenkins(){
+		return new JenkinsTool(server.url());
+	}
+
+	@Test
+	public void getsEveryJobAndItsLastBuildInOneRequest() {
+		List<JenkinsTool.JobAndLastBuild> jobs = jenkins().getJobsWithLastBuild("robokata-");
+
+		assertEquals(1, server.requests.size());
+		assertTrue(server.requests.get(0), server.requests.get(0).startsWith("/api/xml?tree=jobs[name,color,lastBuild[number,"));
+		assertEquals(2, jobs.size());
+
+		JenkinsTool.JobAndLastBuild alice = jobs.get(0);
+		assertEquals("robokata-alice", alice.job.name);
+		assertEquals(JenkinsTool.JobStatus.BLUE, alice.job.status);
+		assertEquals(Integer.valueOf(7), alice.lastBuild.number);
+		assertEquals(1, alice.lastBuild.artifacts.size());
+		assertEquals("robot.jar", alice.lastBuild.artifacts.get(0).fileName);
+		assertEquals("target/robot.jar", alice.lastBuild.artifacts.get(0).relativePath);
+		assertEquals(1, alice.lastBuild.culprits.size());
+		assertEquals("Alice", alice.lastBuild.culprits.get(0).fullName);
+		assertEquals("http://jenkins/user/alice", alice.lastBuild.culprits.get(0).url);
+	}
+
+	@Test
+	public void aJobThatHasNeverBeenBuiltHasNoLastBuild() {
+		List<JenkinsTool.JobAndLastBuild> jobs = jenkins().getJobsWithLastBuild("robokata-");
+
+		JenkinsTool.JobAndLastBuild bob = jobs.get(1);
+		assertEquals("robokata-bob", bob.job.name);
+		assertEquals(JenkinsTool.JobStatus.NOTBUILT, bob.job.status);
+		assertNull(bob.lastBuild);
+	}
+
+	@Test
+	public void handsOverOnlyTheJobsWithThePrefix() {
+		final List<String> names = new ArrayList<String>();
+		jenkins().forEachJobWithLastBuild("other", new JenkinsTool.Handler<JenkinsTool.JobAndLastBuild>() {
+			public void handle(JenkinsTool.JobAndLastBuild item) {
+				names.add(item.job.name + "#" + item.lastBuild.number);
+			}
+		});
+		assertEquals(Collections.singletonList("other-job#3"), names);
+	}
+}
@@ -0,0 +1,177 @@
+package com.cj.robokata;
+
+import static com.cj.robokata.FakeJenkins.job;
+import static com.cj.robokata.FakeJenkins.jobs;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.YearMonthDay;
+import org.junit.After;
+import org.junit.Test;
+
+public class KataWatcherTest {
+	@SuppressWarnings("deprecation")
+	private static final String JOB = Main.namePrefix(new YearMonthDay()) + "-alice";
+
+	/**
+	 * Lets no time pass at all, and has the watcher stop after so many polls.
+	 */
+	private static class FakeClock implements Clock {
+		final List<Long> waits = new ArrayList<Long>();
+		private final int polls;
+		long now = 0;
+
+		FakeClock(int polls) {
+			this.polls = polls;
+		}
+
+		public long millis() {
+			return now;
+		}
+
+		public boolean await(CountDownLatch latch, long millis) throws InterruptedException {
+			waits.add(millis);
+			now += millis;
+			polled(waits.size());
+			if(waits.size()>=polls){
+				latch.countDown();
+			}
+			return latch.getCount()==0;
+		}
+
+		void polled(int polls) throws InterruptedException {
+		}
+	}
+
+	private static class CountingKata implements KataWatcher.Kata {
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch ran = new CountDownLatch(1);
+
+		public void run() {
+			runs.incrementAndGet();
+			ran.countDown();
+		}
+	}
+
+	private FakeJenkins jenkins;
+
+	private FakeJenkins jenkins(String... polls) throws IOException {
+		jenkins = new FakeJenkins(polls);
+		return jenkins;
+	}
+
+	@After
+	public void stopJenkins() {
+		if(jenkins!=null){
+			jenkins.stop();
+		}
+	}
+
+	private static void assertWaited(long[] intervals, List<Long> waits){
+		assertEquals(intervals.length, waits.size());
+		for(int x=0;x<intervals.length;x++){
+			long wait = waits.get(x);
+			assertTrue("wait " + x + " was " + wait + " ms, for an interval of " + intervals[x],
+					wait>=intervals[x] && wait<intervals[x] + Math.max(1, intervals[x] / 10));
+		}
+	}
+
+	@Test
+	public void backsOffWhileNothingChanges() throws Exception {
+		FakeClock clock = new FakeClock(6);
+		CountingKata kata = new CountingKata();
+		new KataWatcher(new JenkinsTool(jenkins(jobs(job(JOB, "blue", 1))).url()), kata, 100, 800, clock).run();
+
+		assertWaited(new long[]{100, 200, 400, 800, 800, 800}, clock.waits);
+		assertTrue(kata.ran.await(5, TimeUnit.SECONDS));
+		assertEquals(1, kata.runs.get());
+		assertEquals(6, jenkins.requests.size());
+	}
+
+	@Test
+	public void aNewGreenBuildBringsPollsBackToTheMinimum() throws Exception {
+		FakeClock clock = new FakeClock(6);
+		new KataWatcher(new JenkinsTool(jenkins(
+				jobs(job(JOB, "blue", 1)),
+				jobs(job(JOB, "blue", 1)),
+				jobs(job(JOB, "blue", 1)),
+				jobs(job(JOB, "red", 2)),
+				jobs(job(JOB, "blue", 3)),
+				jobs(job(JOB, "blue", 3))).url()), new CountingKata(), 100, 800, clock).run();
+
+		// a red build isn't news
+		assertWaited(new long[]{100, 200, 400, 800, 100, 200}, clock.waits);
+	}
+
+	@Test
+	public void anUnreachableJenkinsIsBackedOffFromToo() throws Exception {
+		FakeClock clock = new FakeClock(4);
+		new KataWatcher(new JenkinsTool("http://127.0.0.1:1"), new CountingKata(), 100, 800, clock).run();
+
+		assertWaited(new long[]{200, 400, 800, 800}, clock.waits);
+	}
+
+	@Test
+	public void jittersEachWait() throws Exception {
+		FakeClock clock = new FakeClock(20);
+		new KataWatcher(new JenkinsTool(jenkins(jobs()).url()), new CountingKata(), 1000, 1000, clock).run();
+
+		long[] intervals = new long[20];
+		Arrays.fill(intervals, 1000);
+		assertWaited(intervals, clock.waits);
+		boolean jittered = false;
+		for(long next : clock.waits){
+			jittered |= next!=1000;
+		}
+		assertTrue("no wait was jittered: " + clock.waits, jittered);
+	}
+
+	@Test
+	public void foldsBuildsThatTurnUpDuringARunIntoOneMoreRun() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(2);
+		final AtomicInteger runs = new AtomicInteger();
+		KataWatcher.Kata kata = new KataWatcher.Kata() {
+			public void run() {
+				runs.incrementAndGet();
+				started.countDown();
+				try{
+					release.await();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+				finished.countDown();
+			}
+		};
+		FakeClock clock = new FakeClock(4){
+			@Override
+			void polled(int polls) throws InterruptedException {
+				if(polls==1){
+					// the builds after this turn up while the first run is still going
+					assertTrue(started.await(5, TimeUnit.SECONDS));
+				}
+			}
+		};
+
+		new KataWatcher(new JenkinsTool(jenkins(
+				jobs(job(JOB, "blue", 1)),
+				jobs(job(JOB, "blue", 2)),
+				jobs(job(JOB, "blue", 3)),
+				jobs(job(JOB, "blue", 4))).url()), kata, 100, 800, clock).run();
+		release.countDown();
+
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(2, runs.get());
+		assertWaited(new long[]{100, 100, 100, 100}, clock.waits);
+	}
+}
@@ -0,0 +1,170 @@
+package com.cj.robokata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.cj.robokata.JenkinsTool.Endpoint;
+
+public class LruResponseCacheTest {
+	private static final long TTL = 1000;
+
+	private static class FakeClock implements Clock {
+		long now = 0;
+
+		public long millis() {
+			return now;
+		}
+
+		public boolean await(CountDownLatch latch, long millis) {
+			now += millis;
+			return latch.getCount()==0;
+		}
+	}
+
+	/**
+	 * Answers with the url and how many times it's been fetched.
+	 */
+	private static class Fetcher {
+		final AtomicInteger fetches = new AtomicInteger();
+
+		ResponseCache.Source of(final String url){
+			return new ResponseCache.Source() {
+				public InputStream open() throws IOException {
+					return new ByteArrayInputStream((url + " #" + fetches.incrementAndGet()).getBytes("UTF-8"));
+				}
+			};
+		}
+	}
+
+	private final FakeClock clock = new FakeClock();
+	private final Fetcher fetcher = new Fetcher();
+
+	private static Map<Endpoint, Long> ttls(){
+		Map<Endpoint, Long> ttls = new EnumMap<Endpoint, Long>(Endpoint.class);
+		ttls.put(Endpoint.JOBS, TTL);
+		return ttls;
+	}
+
+	private String get(LruResponseCache cache, String url) throws IOException {
+		return read(cache.open(url, Endpoint.JOBS, fetcher.of(url)));
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try{
+			return IOUtils.toString(in, "UTF-8");
+		}finally{
+			in.close();
+		}
+	}
+
+	@Test
+	public void remembersAResponseUntilItsTtlIsUp() throws IOException {
+		LruResponseCache cache = new LruResponseCache(10, ttls(), clock);
+		assertEquals("/jobs #1", get(cache, "/jobs"));
+		clock.now = TTL;
+		assertEquals("/jobs #1", get(cache, "/jobs"));
+		clock.now = TTL + 1;
+		assertEquals("/jobs #2", get(cache, "/jobs"));
+		assertEquals(1, cache.hits());
+		assertEquals(2, cache.misses());
+	}
+
+	@Test
+	public void neverRemembersEndpointsWithoutATtl() throws IOException {
+		LruResponseCache cache = new LruResponseCache(10, ttls(), clock);
+		assertEquals("/user #1", read(cache.open("/user", Endpoint.USER, fetcher.of("/user"))));
+		assertEquals("/user #2", read(cache.open("/user", Endpoint.USER, fetcher.of("/user"))));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void dropsTheLeastRecentlyUsedFirst() throws IOException {
+		LruResponseCache cache = new LruResponseCache(2, ttls(), clock);
+		get(cache, "/a");
+		get(cache, "/b");
+		get(cache, "/a");
+		get(cache, "/c");
+		assertEquals(2, cache.size());
+		assertEquals(3, fetcher.fetches.get());
+
+		get(cache, "/a");
+		get(cache, "/c");
+		assertEquals(3, fetcher.fetches.get());
+		get(cache, "/b");
+		assertEquals(4, fetcher.fetches.get());
+	}
+
+	@Test
+	public void requestsForAUrlBeingFetchedWaitForThatFetch() throws Exception {
+		final LruResponseCache cache = new LruResponseCache(10, ttls(), clock);
+		final CountDownLatch fetching = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ResponseCache.Source slow = new ResponseCache.Source() {
+			public InputStream open() throws IOException {
+				fetching.countDown();
+				try{
+					release.await();
+				}catch(InterruptedException e){
+					throw new IOException(e.toString());
+				}
+				return fetcher.of("/jobs").open();
+			}
+		};
+		Callable<String> request = new Callable<String>() {
+			public String call() throws IOException {
+				return read(cache.open("/jobs", Endpoint.JOBS, slow));
+			}
+		};
+
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try{
+			Future<String> first = pool.submit(request);
+			fetching.await();
+			Future<String> second = pool.submit(request);
+			while(cache.coalesced()==0){
+				Thread.sleep(1);
+			}
+			release.countDown();
+
+			assertEquals("/jobs #1", first.get(5, TimeUnit.SECONDS));
+			assertEquals("/jobs #1", second.get(5, TimeUnit.SECONDS));
+			assertEquals(1, fetcher.fetches.get());
+			assertEquals(1, cache.misses());
+			assertEquals(1, cache.coalesced());
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void aFailedFetchIsntRemembered() throws IOException {
+		LruResponseCache cache = new LruResponseCache(10, ttls(), clock);
+		try{
+			cache.open("/jobs", Endpoint.JOBS, new ResponseCache.Source() {
+				public InputStream open() throws IOException {
+					throw new IOException("Jenkins is down");
+				}
+			});
+			fail("Fetched from a Jenkins that's down");
+		}catch(IOException e){
+			assertEquals("Jenkins is down", e.getMessage());
+		}
+		assertEquals("/jobs #1", get(cache, "/jobs"));
+	}
+}